@@ -0,0 +1,44 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+/**
+ * Draws the theme's list divider between RecyclerView rows, the way ListView did
+ */
+public class DividerItemDecoration extends RecyclerView.ItemDecoration {
+
+    private final Drawable mDivider;
+
+    public DividerItemDecoration(Context context) {
+        TypedArray attributes = context.obtainStyledAttributes(new int[]{ android.R.attr.listDivider });
+        mDivider = attributes.getDrawable(0);
+        attributes.recycle();
+    }
+
+    @Override
+    public void onDraw(Canvas canvas, RecyclerView parent, RecyclerView.State state) {
+        if (mDivider == null) return;
+
+        int left = parent.getPaddingLeft();
+        int right = parent.getWidth() - parent.getPaddingRight();
+
+        for (int i = 0; i < parent.getChildCount() - 1; i++) {
+            View child = parent.getChildAt(i);
+            RecyclerView.LayoutParams params = (RecyclerView.LayoutParams) child.getLayoutParams();
+            int top = child.getBottom() + params.bottomMargin + Math.round(child.getTranslationY());
+            mDivider.setBounds(left, top, right, top + mDivider.getIntrinsicHeight());
+            mDivider.draw(canvas);
+        }
+    }
+
+    @Override
+    public void getItemOffsets(Rect outRect, View view, RecyclerView parent, RecyclerView.State state) {
+        outRect.set(0, 0, 0, mDivider == null ? 0 : mDivider.getIntrinsicHeight());
+    }
+}
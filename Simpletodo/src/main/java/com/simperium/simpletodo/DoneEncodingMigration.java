@@ -0,0 +1,51 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.simperium.client.Bucket;
+
+/**
+ * One time background pass that re-saves every To-do whose done property was stored in a
+ * non-canonical encoding (a boolean written by the iOS app). Todo.Schema canonicalizes the value
+ * when the object is built, saving it writes the int to storage and the index so the done == 1
+ * queries match every completed To-do. New and updated objects are canonicalized on ingest, so the
+ * pass only has to run once per install.
+ */
+public class DoneEncodingMigration {
+
+    private static final String PREFERENCES = "migrations";
+    private static final String PREF_DONE_ENCODING = "done_encoding_v1";
+
+    public static void runOnce(Context context, final Bucket<Todo> bucket) {
+        final SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if (preferences.getBoolean(PREF_DONE_ENCODING, false)) return;
+
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                int migrated = 0;
+                Bucket.ObjectCursor<Todo> cursor = bucket.query().execute();
+                try {
+                    while (cursor.moveToNext()) {
+                        Todo todo = cursor.getObject();
+                        if (todo.needsCanonicalSave()) {
+                            todo.save();
+                            migrated++;
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                preferences.edit().putBoolean(PREF_DONE_ENCODING, true).apply();
+                if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+                    TodoLog.d("Canonicalized done for " + migrated + " todos");
+                }
+            }
+        });
+    }
+
+    private DoneEncodingMigration() {
+    }
+}
@@ -0,0 +1,98 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses bursts of refresh requests into a single refresh. Bucket listener callbacks can arrive
+ * hundreds at a time during a sync, so every request made within the coalescing window is merged
+ * and the refresh runs once on the Handler's thread.
+ */
+public class RefreshScheduler {
+
+    // Roughly one frame at 60fps
+    public static final long FRAME_WINDOW_MS = 16;
+
+    public interface OnRefreshListener {
+        // Called on the Handler's thread with the number of requests merged into this refresh
+        void onRefresh(int mergedRequests);
+    }
+
+    private final Handler mHandler;
+    private final long mWindowMs;
+    private final OnRefreshListener mListener;
+
+    private final AtomicInteger mPendingRequests = new AtomicInteger();
+    private final AtomicInteger mSuspendCount = new AtomicInteger();
+    private final AtomicLong mTotalRequests = new AtomicLong();
+    private final AtomicLong mTotalRefreshes = new AtomicLong();
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Requests stay pending until resume()
+            if (mSuspendCount.get() > 0) return;
+
+            int merged = mPendingRequests.getAndSet(0);
+            if (merged == 0) return;
+
+            mTotalRefreshes.incrementAndGet();
+            mListener.onRefresh(merged);
+        }
+    };
+
+    public RefreshScheduler(Handler handler, OnRefreshListener listener) {
+        this(handler, FRAME_WINDOW_MS, listener);
+    }
+
+    public RefreshScheduler(Handler handler, long windowMs, OnRefreshListener listener) {
+        if (windowMs < 0)
+            throw new IllegalArgumentException("Coalescing window must not be negative");
+
+        mHandler = handler;
+        mWindowMs = windowMs;
+        mListener = listener;
+    }
+
+    // Safe to call from any thread. Only the first request of a burst schedules the refresh, the
+    // rest are counted and merged into it.
+    public void requestRefresh() {
+        mTotalRequests.incrementAndGet();
+        if (mPendingRequests.getAndIncrement() == 0 && mSuspendCount.get() == 0) {
+            mHandler.postDelayed(mRefreshRunnable, mWindowMs);
+        }
+    }
+
+    // Holds back refreshes during bulk operations, every request made until the matching resume()
+    // is merged into a single refresh
+    public void suspend() {
+        mSuspendCount.incrementAndGet();
+    }
+
+    public void resume() {
+        if (mSuspendCount.decrementAndGet() == 0 && mPendingRequests.get() > 0) {
+            mHandler.post(mRefreshRunnable);
+        }
+    }
+
+    // Drops any pending refresh, used when the consumer goes away
+    public void cancel() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mPendingRequests.set(0);
+    }
+
+    public long getTotalRequests() {
+        return mTotalRequests.get();
+    }
+
+    public long getTotalRefreshes() {
+        return mTotalRefreshes.get();
+    }
+
+    // Requests that were folded into another refresh instead of running their own
+    public long getMergedRequests() {
+        return mTotalRequests.get() - mTotalRefreshes.get() - mPendingRequests.get();
+    }
+}
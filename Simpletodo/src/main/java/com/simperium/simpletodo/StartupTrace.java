@@ -0,0 +1,43 @@
+package com.simperium.simpletodo;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+/**
+ * Cold start markers. Sections show up in systrace on API 18 and up, and every marker is also
+ * logged with the time since the application was created so startup can be compared on any device.
+ *
+ * A section must be ended on the thread that began it.
+ */
+final class StartupTrace {
+
+    private static volatile long sStartTime = SystemClock.elapsedRealtime();
+
+    private StartupTrace() {
+    }
+
+    // Called first thing in TodoApplication.onCreate() so markers are relative to it
+    static void start() {
+        sStartTime = SystemClock.elapsedRealtime();
+    }
+
+    static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    static void endSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        mark(name);
+    }
+
+    static void mark(String name) {
+        if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+            TodoLog.d("Startup " + name + " at +" + (SystemClock.elapsedRealtime() - sStartTime) + "ms");
+        }
+    }
+}
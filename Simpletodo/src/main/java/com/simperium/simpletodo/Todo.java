@@ -1,29 +1,44 @@
 package com.simperium.simpletodo;
 
+import android.database.Cursor;
+
 import com.simperium.client.Bucket;
 import com.simperium.client.BucketObject;
 import com.simperium.client.BucketSchema;
 import com.simperium.client.Query;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * This model extends BucketObject to support syncing its properties with Simperium (done, title and
- * order)
+ * order). The properties are decoded once when the object is built or updated and the getters
+ * serve the cached values.
  */
 
 public class Todo extends BucketObject {
 
-    private static final String DONE_PROPERTY = "done";
-    private static final String TITLE_PROPERTY = "title";
-    private static final String ORDER_PROPERTY = "order";
+    private static final String DONE_PROPERTY = TodoFields.DONE_PROPERTY;
+    private static final String TITLE_PROPERTY = TodoFields.TITLE_PROPERTY;
+    private static final String ORDER_PROPERTY = TodoFields.ORDER_PROPERTY;
+
+    private static final int DONE = TodoFields.DONE;
+    private static final int NOT_DONE = TodoFields.NOT_DONE;
+
+    // Decoded from the properties by decodeProperties(), never assigned in an initializer since
+    // BucketObject's constructor may already call setProperties()
+    private boolean mDone;
+    private String mTitle;
+    private double mOrder;
 
-    private static final int DONE = 1;
-    private static final int NOT_DONE = 0;
+    // Set when the stored done value was not in the canonical int encoding, see DoneEncodingMigration
+    private boolean mNeedsCanonicalSave;
 
     private Todo(String key, JSONObject properties) {
         super(key, properties);
+        decodeProperties();
     }
 
     // Configure the Simperium Schema for this object
@@ -31,7 +46,12 @@ public class Todo extends BucketObject {
 
         public static final String BUCKET_NAME = "todo";
 
-        public Schema() {
+        private final TodoCache mCache;
+
+        // The cache is invalidated whenever Simperium updates a To-do in place
+        public Schema(TodoCache cache) {
+            mCache = cache;
+
             // Indexing will improve retrieving and querying objects in Simperium
             // autoIndex indexes all top level properties: done, title and order
             autoIndex();
@@ -46,20 +66,39 @@ public class Todo extends BucketObject {
         // Build a new To-do from a JSONObject
         @Override
         public Todo build(String key, JSONObject properties) {
-            return new Todo(key, properties);
+            boolean canonicalized = TodoFields.canonicalizeDone(properties);
+            Todo todo = new Todo(key, properties);
+            todo.mNeedsCanonicalSave = canonicalized;
+            return todo;
         }
 
         // Updates a To-do with the JSONObject
         @Override
         public void update(Todo todo, JSONObject properties) {
+            boolean canonicalized = TodoFields.canonicalizeDone(properties);
             todo.updateProperties(properties);
-            android.util.Log.d("Simpletodo", "Updated properties: " + todo);
+            todo.mNeedsCanonicalSave = canonicalized;
+            mCache.invalidate(todo.getSimperiumKey());
+            TodoLog.d("Updated properties: ", todo);
         }
     }
 
-    // Return a count of completed To-dos
-    public static int countCompleted(Bucket<Todo> bucket) {
-        return bucket.query().where(DONE_PROPERTY, Query.ComparisonType.EQUAL_TO, DONE).count();
+    // Returns a Query for the completed To-dos, matched on the indexed done value
+    public static Query<Todo> queryCompleted(Bucket<Todo> bucket) {
+        return bucket.query().where(DONE_PROPERTY, Query.ComparisonType.EQUAL_TO, DONE);
+    }
+
+    // Return the keys of completed To-dos, used to reconcile the TodoFilterIndex
+    public static Set<String> queryCompletedKeys(Bucket<Todo> bucket) {
+        long start = System.nanoTime();
+        Set<String> keys = new HashSet<>();
+        Bucket.ObjectCursor<Todo> cursor = queryCompleted(bucket).execute();
+        while (cursor.moveToNext()) {
+            keys.add(cursor.getSimperiumKey());
+        }
+        cursor.close();
+        TodoMetrics.sCompletedQuery.recordSince(start);
+        return keys;
     }
 
     // Returns a Simperium ObjectCursor for all existing To-dos
@@ -69,20 +108,40 @@ public class Todo extends BucketObject {
         return query;
     }
 
-    // Delete all completed To-dos from the bucket
-    public static void deleteCompleted(final Bucket<Todo> bucket) {
-        bucket.executeAsync(new Runnable() {
-            @Override
-            public void run() {
-                Query<Todo> query = bucket.query();
-                Bucket.ObjectCursor<Todo> cursor = query.where(DONE_PROPERTY, Query.ComparisonType.EQUAL_TO, DONE).execute();
-                while (cursor.moveToNext()) {
-                    Todo todo = cursor.getObject();
-                    todo.delete();
-                }
-                cursor.close();
-            }
-        });
+    // Same as queryAll(), the cursor also has the indexed done, title and order values as columns so
+    // entryAt() reads the To-dos without building them
+    public static Query<Todo> queryAllEntries(Bucket<Todo> bucket) {
+        Query<Todo> query = queryAll(bucket);
+        query.include(DONE_PROPERTY, TITLE_PROPERTY, ORDER_PROPERTY);
+        return query;
+    }
+
+    // The entry of the To-do at a queryAllEntries() cursor's position, from the index columns and
+    // decoded like the properties. Falls back to building the To-do when a column is missing.
+    public static TodoEntry entryAt(Bucket.ObjectCursor<Todo> cursor) {
+        int done = cursor.getColumnIndex(DONE_PROPERTY);
+        int title = cursor.getColumnIndex(TITLE_PROPERTY);
+        int order = cursor.getColumnIndex(ORDER_PROPERTY);
+        if (done < 0 || title < 0 || order < 0) return cursor.getObject().toEntry();
+
+        return new TodoEntry(cursor.getSimperiumKey(),
+                TodoFields.decodeOrder(indexedValue(cursor, order)),
+                TodoFields.decodeDone(indexedValue(cursor, done)),
+                TodoEntry.hashTitle(TodoFields.decodeTitle(indexedValue(cursor, title))));
+    }
+
+    // The value as SQLite stored it, null for a To-do without the property
+    private static Object indexedValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            default:
+                return null;
+        }
     }
 
     // Update the properties for the passed JSONObject
@@ -90,16 +149,50 @@ public class Todo extends BucketObject {
         this.setProperties(properties);
     }
 
-    // Toggle the completed state for a To-do
-    // save() will save the object and sync the changes with Simperium
-    public void toggleDone() {
-        setProperty(DONE_PROPERTY, isDone() ? NOT_DONE : DONE);
-        save();
+    @Override
+    public void setProperties(JSONObject properties) {
+        super.setProperties(properties);
+        decodeProperties();
+    }
+
+    // Keep the decoded fields in sync with local changes
+    @Override
+    public void setProperty(String key, Object value) {
+        super.setProperty(key, value);
+        if (DONE_PROPERTY.equals(key) || TITLE_PROPERTY.equals(key) || ORDER_PROPERTY.equals(key)) {
+            decodeProperties();
+        }
+    }
+
+    private void decodeProperties() {
+        JSONObject properties = getProperties();
+        // still inside BucketObject's constructor, the Todo constructor decodes again
+        if (properties == null) return;
+
+        mDone = TodoFields.decodeDone(properties.opt(DONE_PROPERTY));
+        mTitle = TodoFields.decodeTitle(properties.opt(TITLE_PROPERTY));
+        mOrder = TodoFields.decodeOrder(properties.opt(ORDER_PROPERTY));
+    }
+
+    // True when this To-do was read with a non-canonical done value and should be saved once
+    // so the stored index matches
+    public boolean needsCanonicalSave() {
+        return mNeedsCanonicalSave;
+    }
+
+    // Snapshot of the decoded fields for the list
+    public TodoRow toRow() {
+        return new TodoRow(getSimperiumKey(), mTitle, mDone, mOrder);
+    }
+
+    // What the list index keeps of this To-do, without the title
+    public TodoEntry toEntry() {
+        return new TodoEntry(getSimperiumKey(), mOrder, mDone, TodoEntry.hashTitle(mTitle));
     }
 
     // Get the To-do title
     public String getTitle() {
-        return getProperties().optString(TITLE_PROPERTY, "");
+        return mTitle;
     }
 
     // Set the To-do title
@@ -107,34 +200,32 @@ public class Todo extends BucketObject {
         setProperty(TITLE_PROPERTY, title);
     }
 
-    // Set the order property of this To-do
-    public void setOrder(int order) {
+    // Get the order property of this To-do
+    public double getOrder() {
+        return mOrder;
+    }
+
+    // Set the order property of this To-do, a sparse rank from TodoOrdering
+    public void setOrder(double order) {
         setProperty(ORDER_PROPERTY, order);
     }
 
     // Not usually needed to override, but used for logging in this sample app
     @Override
     public void save() {
-        android.util.Log.d("Simpletodo", getProperties().toString());
+        long start = System.nanoTime();
+        long trace = TodoLog.beginTrace("Todo.save");
+        TodoLog.d("Saving ", getProperties());
+        mNeedsCanonicalSave = false;
         super.save();
+        TodoLog.endTrace("Todo.save", trace);
+        TodoMetrics.sSave.recordSince(start);
     }
 
     // Checks if a To-Do is marked done
-    // A bit of extra work is done to check if the value was set from the iOS Simpletodo app
+    // The done property can be an int or, when set from the iOS Simpletodo app, a boolean. See TodoFields.
     public boolean isDone() {
-        try {
-            // is done property an int of 1?
-            return getProperties().getInt(DONE_PROPERTY) == DONE;
-        } catch (JSONException e) {
-            // done wasn't an int
-            try {
-                // is done boolean true?
-                return getProperties().getBoolean(DONE_PROPERTY);
-            } catch (JSONException e1) {
-                // this was unexpected, it should have been an int or a boolean but was neither, we'll just return not done in this case
-                return false;
-            }
-        }
+        return mDone;
     }
 
     // Used for debug logging
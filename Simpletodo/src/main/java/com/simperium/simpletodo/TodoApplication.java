@@ -1,38 +1,156 @@
 package com.simperium.simpletodo;
 
 import android.app.Application;
-import android.util.Log;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 
 import com.simperium.Simperium;
 import com.simperium.client.Bucket;
 import com.simperium.client.BucketNameInvalid;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The main application class. It is recommended that you create your Simperium client here and keep
  * private instances of all buckets needed for your application with getters.
+ *
+ * Creating the client opens its database and reads the stored user, so it is done on a background
+ * thread, and only once an activity starts it with startInit() or getTodoBucket(listener). Activities
+ * ask for the bucket with getTodoBucket(listener) and are called back on the main thread once it is
+ * ready, then subscribe to the TodoRepository for the To-dos themselves. A process started for a
+ * widget broadcast never gets there, so it doesn't open the database or run migrations.
+ *
+ * The home screen widget is kept up to date by a TodoWidgetUpdater observing the repository, the
+ * widget itself only reads the summary it writes. The updater starts with the client, nothing changes
+ * the To-dos before that.
+ *
+ * Builds made without the simperiumApp and simperiumKey properties are offline: the bucket stores
+ * To-dos locally and is never started, so no account is needed. See TodoLoadGenerator.
  */
 
 public class TodoApplication extends Application {
 
-    // Simperium and Bucket objects
-    private Simperium mSimperium;
-    private Bucket<Todo> mTodoBucket;
+    public interface OnTodoBucketReadyListener {
+        // Called on the main thread, bucket is null if it could not be created
+        void onTodoBucketReady(Simperium simperium, Bucket<Todo> bucket);
+    }
+
+    // Simperium and Bucket objects, written once by the init thread
+    private volatile Simperium mSimperium;
+    private volatile Bucket<Todo> mTodoBucket;
+    private volatile TodoSyncOwner mSyncOwner;
+    private volatile TodoRepository mRepository;
+    private volatile TodoWriteQueue mWriteQueue;
+    // Created before the init thread starts
+    private TodoCache mTodoCache;
+
+    // Main thread only
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnTodoBucketReadyListener> mPendingListeners = new ArrayList<>();
+    private TodoWidgetUpdater mWidgetUpdater;
+    private boolean mInitStarted;
+    private boolean mReady;
 
     @Override
     public void onCreate() {
+        StartupTrace.start();
+        StartupTrace.beginSection("TodoApplication.onCreate");
         super.onCreate();
 
+        mTodoCache = new TodoCache(getResources().getInteger(R.integer.todo_cache_size));
+
+        StartupTrace.endSection("TodoApplication.onCreate");
+    }
+
+    // Main thread only. Starts creating the client if that hasn't started yet, activities call it
+    // first thing so it overlaps their layout.
+    public void startInit() {
+        if (mInitStarted) return;
+
+        mInitStarted = true;
+        // The thread keeps its Looper after init in case the client created Handlers on it
+        HandlerThread initThread = new HandlerThread("simperium-init");
+        initThread.start();
+        new Handler(initThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                createSimperium();
+            }
+        });
+    }
+
+    // Init thread only
+    private void createSimperium() {
         // Create Simperium client
+        StartupTrace.beginSection("Simperium.newClient");
         mSimperium = Simperium.newClient(BuildConfig.SIMPERIUM_APP, BuildConfig.SIMPERIUM_KEY, this);
+        StartupTrace.endSection("Simperium.newClient");
 
+        StartupTrace.beginSection("Simperium.bucket");
         try {
-            mTodoBucket = mSimperium.bucket("todo", new Todo.Schema());
+            mTodoBucket = mSimperium.bucket("todo", new Todo.Schema(mTodoCache));
+            mSyncOwner = new TodoSyncOwner(mTodoBucket, mTodoCache);
+            mRepository = new TodoRepository(mTodoBucket, mSyncOwner, mTodoCache,
+                    getResources().getInteger(R.integer.refresh_window_ms));
+            mWriteQueue = new TodoWriteQueue(mTodoBucket, mSyncOwner);
+            DoneEncodingMigration.runOnce(this, mTodoBucket);
         } catch (BucketNameInvalid bucketNameInvalid) {
-            Log.i("SimpleTodo", "Could not create bucket");
+            TodoLog.w("Could not create bucket", bucketNameInvalid);
+        }
+        StartupTrace.endSection("Simperium.bucket");
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onSimperiumReady();
+            }
+        });
+    }
+
+    private void onSimperiumReady() {
+        mReady = true;
+        StartupTrace.mark("bucket ready");
+        // Created without a bucket too, a summary stored by an earlier run may still need clearing
+        mWidgetUpdater = new TodoWidgetUpdater(this, getResources().getInteger(R.integer.widget_update_interval_ms));
+        if (mRepository != null) {
+            mWidgetUpdater.start(mRepository, mTodoBucket, mTodoCache);
+        }
+
+        List<OnTodoBucketReadyListener> listeners = new ArrayList<>(mPendingListeners);
+        mPendingListeners.clear();
+        for (OnTodoBucketReadyListener listener : listeners) {
+            listener.onTodoBucketReady(mSimperium, mTodoBucket);
         }
     }
 
-    // Getters
+    // Main thread only. Calls back right away if the bucket is ready, otherwise once it is. The first
+    // call creates the client.
+    public void getTodoBucket(OnTodoBucketReadyListener listener) {
+        if (mReady) {
+            listener.onTodoBucketReady(mSimperium, mTodoBucket);
+            return;
+        }
+
+        if (!mPendingListeners.contains(listener)) {
+            mPendingListeners.add(listener);
+        }
+        startInit();
+    }
+
+    // Main thread only, once the bucket is ready. For when the user signs out, the widget must not keep
+    // showing their To-dos.
+    public void clearWidget() {
+        mWidgetUpdater.clear();
+    }
+
+    // Main thread only, for listeners that go away before the bucket is ready
+    public void cancelTodoBucketRequest(OnTodoBucketReadyListener listener) {
+        mPendingListeners.remove(listener);
+    }
+
+    // Getters, null until the init thread has finished
     public Simperium getSimperium() {
         return mSimperium;
     }
@@ -40,4 +158,24 @@ public class TodoApplication extends Application {
     public Bucket<Todo> getTodoBucket() {
         return mTodoBucket;
     }
-}
\ No newline at end of file
+
+    // Starts and stops the bucket, acquire it instead of calling start() and stop()
+    public TodoSyncOwner getSyncOwner() {
+        return mSyncOwner;
+    }
+
+    // The one listener on the bucket, every screen and widget subscribes to its snapshots
+    public TodoRepository getTodoRepository() {
+        return mRepository;
+    }
+
+    // Decoded To-dos shared by every reader, available as soon as the application is created
+    public TodoCache getTodoCache() {
+        return mTodoCache;
+    }
+
+    // Outlives activities so queued edits are written even if the one that made them is gone
+    public TodoWriteQueue getWriteQueue() {
+        return mWriteQueue;
+    }
+}
@@ -0,0 +1,65 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+
+/**
+ * Deletes completed To-dos in bulk on the bucket's background executor. The completed To-dos are
+ * read with a single indexed query and deleted straight from its cursor, so each one is decoded once
+ * and never looked up again by key. Progress is reported every CHUNK_SIZE deletes.
+ *
+ * Callers are expected to suspend the TodoRepository until onBulkDeleteComplete(), which is always
+ * called: the whole operation then results in one snapshot, and the filter index checks itself
+ * against the bucket once at the end instead of every few hundred deletes.
+ *
+ * A cursor that reads its rows a window at a time can skip rows once earlier ones are deleted, so the
+ * query is run again until a pass finds nothing left to delete.
+ */
+public class TodoBulkDelete {
+
+    public static final int CHUNK_SIZE = 250;
+
+    public interface Listener {
+        // Both callbacks are made from the bucket's background thread
+        void onBulkDeleteProgress(int deleted, int total);
+
+        void onBulkDeleteComplete(int deleted);
+    }
+
+    public static void deleteCompleted(final Bucket<Todo> bucket, final Listener listener) {
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                int deleted = 0;
+                try {
+                    int total = -1;
+                    int passDeleted;
+                    do {
+                        passDeleted = 0;
+                        Bucket.ObjectCursor<Todo> cursor = Todo.queryCompleted(bucket).execute();
+                        try {
+                            if (total < 0) {
+                                total = cursor.getCount();
+                                listener.onBulkDeleteProgress(0, total);
+                            }
+                            while (cursor.moveToNext()) {
+                                cursor.getObject().delete();
+                                passDeleted++;
+                                if ((deleted + passDeleted) % CHUNK_SIZE == 0) {
+                                    listener.onBulkDeleteProgress(Math.min(deleted + passDeleted, total), total);
+                                }
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                        deleted += passDeleted;
+                    } while (passDeleted > 0);
+                } finally {
+                    listener.onBulkDeleteComplete(deleted);
+                }
+            }
+        });
+    }
+
+    private TodoBulkDelete() {
+    }
+}
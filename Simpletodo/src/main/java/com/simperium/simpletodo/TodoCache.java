@@ -0,0 +1,85 @@
+package com.simperium.simpletodo;
+
+import android.util.LruCache;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+/**
+ * A bounded LRU cache of decoded To-dos in front of the bucket, keyed by Simperium key. Reads that
+ * only look at a To-do (the filter index and search after a change, the rows on screen and the
+ * widget's titles) go through it, so a To-do that didn't change since it was last read is not
+ * decoded from its stored JSON again. Edits still start from
+ * Bucket.get(), cached To-dos are shared between threads and must never be modified.
+ *
+ * Entries are invalidated key by key by the sync owner as changes arrive and by Todo.Schema.update().
+ * A To-do read from storage while an invalidation happened is returned but not cached, so the cache
+ * never holds an older version than storage.
+ *
+ * Hits, misses and evictions are counted in TodoMetrics for tuning the capacity against memory.
+ */
+public class TodoCache {
+
+    private final Cache mCache;
+    // Guarded by this, bumped by every invalidation
+    private long mInvalidations;
+
+    private static class Cache extends LruCache<String, Todo> {
+
+        Cache(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Todo oldValue, Todo newValue) {
+            if (evicted) TodoMetrics.sCacheEvictions.incrementAndGet();
+        }
+    }
+
+    public TodoCache(int capacity) {
+        mCache = new Cache(capacity);
+    }
+
+    public int getCapacity() {
+        return mCache.maxSize();
+    }
+
+    // Decodes the To-do from storage on a miss
+    public Todo get(Bucket<Todo> bucket, String key) throws BucketObjectMissingException {
+        Todo todo = mCache.get(key);
+        if (todo != null) {
+            TodoMetrics.sCacheHits.incrementAndGet();
+            return todo;
+        }
+
+        long invalidations = getInvalidations();
+        todo = bucket.get(key);
+        put(key, todo, invalidations);
+        return todo;
+    }
+
+    public synchronized void invalidate(String key) {
+        mInvalidations++;
+        mCache.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        mInvalidations++;
+        // Removed one by one, evictAll() would count every entry as an eviction
+        for (String key : mCache.snapshot().keySet()) {
+            mCache.remove(key);
+        }
+    }
+
+    private synchronized long getInvalidations() {
+        return mInvalidations;
+    }
+
+    // Skipped when anything was invalidated since the read started, it may have been this To-do
+    private synchronized void put(String key, Todo todo, long invalidations) {
+        TodoMetrics.sCacheMisses.incrementAndGet();
+        if (invalidations == mInvalidations) {
+            mCache.put(key, todo);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A scripted sequence of remote creates, updates and deletes against the todo bucket, replayed by
+ * TodoLoadGenerator on a device and by the benchmarks module on the JVM. Traces are stored as one
+ * JSON change per line:
+ *
+ *   {"op":"create","key":"load-1","value":{"title":"...","done":0,"order":1024}}
+ *   {"op":"delete","key":"load-1"}
+ */
+public final class TodoChangeTrace {
+
+    public static final String CREATE = "create";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    public static final class Change {
+        public final String op;
+        public final String key;
+        // null for deletes
+        public final JSONObject value;
+
+        public Change(String op, String key, JSONObject value) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final List<Change> mChanges;
+
+    private TodoChangeTrace(List<Change> changes) {
+        mChanges = Collections.unmodifiableList(changes);
+    }
+
+    public List<Change> getChanges() {
+        return mChanges;
+    }
+
+    public int size() {
+        return mChanges.size();
+    }
+
+    // Creates `initial` To-dos, then makes `changes` random edits to them: mostly title and done
+    // updates, some reorders, and creates and deletes in equal measure. The same seed always
+    // produces the same trace.
+    public static TodoChangeTrace generate(long seed, int initial, int changes) {
+        Random random = new Random(seed);
+        List<Change> trace = new ArrayList<>(initial + changes);
+        List<String> live = new ArrayList<>(initial);
+        Map<String, Double> orders = new HashMap<>(initial * 2);
+        int nextKey = 0;
+
+        for (int i = 0; i < initial; i++) {
+            String key = "load-" + nextKey++;
+            live.add(key);
+            orders.put(key, TodoOrdering.atPosition(i));
+            trace.add(new Change(CREATE, key, properties("Load todo " + key, false, orders.get(key))));
+        }
+
+        for (int i = 0; i < changes; i++) {
+            int roll = random.nextInt(100);
+            if (live.isEmpty() || roll < 10) {
+                String key = "load-" + nextKey++;
+                live.add(key);
+                orders.put(key, TodoOrdering.atPosition(random.nextInt(live.size())) + 1);
+                trace.add(new Change(CREATE, key, properties("Load todo " + key, false, orders.get(key))));
+            } else if (roll < 20) {
+                String key = live.remove(random.nextInt(live.size()));
+                orders.remove(key);
+                trace.add(new Change(DELETE, key, null));
+            } else {
+                String key = live.get(random.nextInt(live.size()));
+                if (roll < 30) {
+                    orders.put(key, TodoOrdering.atPosition(random.nextInt(live.size())) + 0.5);
+                }
+                trace.add(new Change(UPDATE, key, properties("Load todo " + key + " v" + i,
+                        random.nextBoolean(), orders.get(key))));
+            }
+        }
+        return new TodoChangeTrace(trace);
+    }
+
+    public static TodoChangeTrace read(BufferedReader reader) throws IOException {
+        List<Change> changes = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) continue;
+
+            try {
+                JSONObject json = new JSONObject(line);
+                String op = json.getString("op");
+                if (!op.equals(CREATE) && !op.equals(UPDATE) && !op.equals(DELETE)) {
+                    throw new IOException("Unknown op " + op + " on line " + lineNumber);
+                }
+                changes.add(new Change(op, json.getString("key"),
+                        op.equals(DELETE) ? null : json.getJSONObject("value")));
+            } catch (JSONException e) {
+                throw new IOException("Invalid change on line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return new TodoChangeTrace(changes);
+    }
+
+    public void write(Writer writer) throws IOException {
+        for (Change change : mChanges) {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("op", change.op);
+                json.put("key", change.key);
+                if (change.value != null) {
+                    json.put("value", change.value);
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+            writer.write(json.toString());
+            writer.write('\n');
+        }
+    }
+
+    private static JSONObject properties(String title, boolean done, double order) {
+        JSONObject properties = new JSONObject();
+        try {
+            properties.put(TodoFields.TITLE_PROPERTY, title);
+            properties.put(TodoFields.DONE_PROPERTY, done ? TodoFields.DONE : TodoFields.NOT_DONE);
+            properties.put(TodoFields.ORDER_PROPERTY, order);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        return properties;
+    }
+}
@@ -28,8 +28,8 @@ public class TodoEditorFragment extends DialogFragment implements TextView.OnEdi
 
     private OnTodoEditorCompleteListener mListener;
 
-    public static TodoEditorFragment newInstance(Todo todo) {
-        return newInstance(todo.getSimperiumKey(), todo.getTitle());
+    public static TodoEditorFragment newInstance(TodoRow row) {
+        return newInstance(row.key, row.title);
     }
 
     private static TodoEditorFragment newInstance(String key, String label) {
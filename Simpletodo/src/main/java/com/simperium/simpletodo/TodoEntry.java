@@ -0,0 +1,62 @@
+package com.simperium.simpletodo;
+
+/**
+ * What the list keeps of every To-do: its key, rank and done state, and a 64 bit hash of its title
+ * instead of the title itself. The TodoFilterIndex and the snapshots hold these for the whole bucket,
+ * so their memory doesn't depend on how long the titles are. Titles are read a window at a time for
+ * the rows on screen, see TodoRowWindows.
+ *
+ * The hash lets a diff and the row windows tell that a title changed without keeping it. Two titles
+ * of the same To-do hashing the same would only leave its row showing the old title until it is next
+ * read, at 64 bits that isn't going to happen.
+ */
+public final class TodoEntry {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public final String key;
+    public final double order;
+    public final boolean done;
+    public final long titleHash;
+
+    public TodoEntry(String key, double order, boolean done, long titleHash) {
+        this.key = key;
+        this.order = order;
+        this.done = done;
+        this.titleHash = titleHash;
+    }
+
+    public static TodoEntry of(TodoRow row) {
+        return new TodoEntry(row.key, row.order, row.done, row.titleHash);
+    }
+
+    // 64 bit FNV-1a over the title's chars, doesn't allocate
+    public static long hashTitle(String title) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < title.length(); i++) {
+            hash ^= title.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public TodoEntry withOrder(double order) {
+        return new TodoEntry(key, order, done, titleHash);
+    }
+
+    // True when the row renders the same, position changes are tracked by the diff separately
+    public boolean hasSameContent(TodoEntry other) {
+        return done == other.done && titleHash == other.titleHash;
+    }
+
+    // True when the loaded row still shows this To-do's title
+    public boolean hasTitleOf(TodoRow row) {
+        return row.titleHash == titleHash;
+    }
+
+    @Override
+    public String toString() {
+        return "TodoEntry " + key + " @" + order + " [" + (done ? "x" : " ") + "]";
+    }
+}
@@ -0,0 +1,70 @@
+package com.simperium.simpletodo;
+
+import android.util.JsonWriter;
+
+import com.simperium.client.Bucket;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+/**
+ * Writes every To-do in list order as a JSON array that TodoImporter can read back. The ordered
+ * ObjectCursor is walked on the bucket's background executor and each To-do is written as it is
+ * read, nothing is collected in memory.
+ */
+public class TodoExporter {
+
+    public interface Listener {
+        // Called from the bucket's background thread, error is null on success
+        void onExportComplete(int exported, IOException error);
+    }
+
+    // Closes the stream
+    public static void exportTodos(final Bucket<Todo> bucket, final OutputStream out, final Listener listener) {
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                int exported = 0;
+                IOException error = null;
+
+                Bucket.ObjectCursor<Todo> cursor = Todo.queryAll(bucket).execute();
+                JsonWriter writer = null;
+                try {
+                    writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+                    writer.beginArray();
+                    while (cursor.moveToNext()) {
+                        Todo todo = cursor.getObject();
+                        writer.beginObject();
+                        writer.name("key").value(todo.getSimperiumKey());
+                        writer.name(TodoFields.TITLE_PROPERTY).value(todo.getTitle());
+                        writer.name(TodoFields.DONE_PROPERTY).value(todo.isDone() ? TodoFields.DONE : TodoFields.NOT_DONE);
+                        writer.name(TodoFields.ORDER_PROPERTY).value(todo.getOrder());
+                        writer.endObject();
+                        exported++;
+                    }
+                    writer.endArray();
+                    writer.flush();
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    cursor.close();
+                    try {
+                        if (writer != null) {
+                            writer.close();
+                        } else {
+                            out.close();
+                        }
+                    } catch (IOException e) {
+                        if (error == null) error = e;
+                    }
+                }
+                listener.onExportComplete(exported, error);
+            }
+        });
+    }
+
+    private TodoExporter() {
+    }
+}
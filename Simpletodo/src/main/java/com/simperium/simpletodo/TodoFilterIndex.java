@@ -0,0 +1,336 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Every To-do's TodoEntry partitioned into active and completed, each partition sorted by order, so
+ * the filtered lists and the completed count are read from memory instead of queried. Entries hold
+ * no titles, so the index stays a few dozen bytes per To-do however long the titles are. The index is
+ * seeded once from the bucket's indexed done, title and order values, without building a Todo from
+ * its JSON, then each listener callback moves only the To-do it names. A
+ * partition's list is built once after it changed and handed out as is until it changes again, so a
+ * snapshot() only copies the partitions that changed since the last one.
+ *
+ * Every RECONCILE_INTERVAL changes the completed keys are checked against the bucket, a query that
+ * only reads keys, and the To-dos that disagree are read again. That corrects any drift from changes
+ * whose callbacks were missed. Bulk changes hold the check back and run it once at the end.
+ */
+public class TodoFilterIndex {
+
+    public static final int RECONCILE_INTERVAL = 500;
+
+    public enum Filter {
+        ALL, ACTIVE, COMPLETED
+    }
+
+    public interface OnReconciledListener {
+        // Called from a background thread when seeding finished or reconciling changed the index
+        void onFilterIndexReconciled();
+    }
+
+    // Keys break ties so To-dos with equal ranks are still distinct
+    private static final Comparator<TodoEntry> BY_ORDER = new Comparator<TodoEntry>() {
+        @Override
+        public int compare(TodoEntry left, TodoEntry right) {
+            int order = Double.compare(left.order, right.order);
+            return order != 0 ? order : left.key.compareTo(right.key);
+        }
+    };
+
+    private final OnReconciledListener mListener;
+    private final TodoCache mCache;
+
+    // Guarded by this, replaced as a whole by seeding
+    private Map<String, TodoEntry> mEntries = new HashMap<>();
+    private TreeSet<TodoEntry> mActive = new TreeSet<>(BY_ORDER);
+    private TreeSet<TodoEntry> mCompleted = new TreeSet<>(BY_ORDER);
+    // Built on first read after the partition changed, null until then
+    private List<TodoEntry> mActiveList;
+    private List<TodoEntry> mCompletedList;
+    private List<TodoEntry> mAllList;
+    private int mChangesSinceReconcile;
+    private int mReconcileHolds;
+    private boolean mReconcileDue;
+    private boolean mSeeded;
+    // Changed while seeding, read again afterwards
+    private boolean mSeeding;
+    // Counts seeds, only the latest one is swapped in
+    private int mSeedGeneration;
+    private final Set<String> mChangedDuringSeed = new HashSet<>();
+
+    public TodoFilterIndex(OnReconciledListener listener, TodoCache cache) {
+        mListener = listener;
+        mCache = cache;
+    }
+
+    // Reads every To-do into the index on the bucket's background executor. The index counts as not
+    // seeded until it is done, what it holds meanwhile may be far behind the bucket.
+    public void seed(final Bucket<Todo> bucket) {
+        final int generation;
+        synchronized (this) {
+            generation = ++mSeedGeneration;
+            mSeeded = false;
+            mSeeding = true;
+            mChangedDuringSeed.clear();
+        }
+
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                // Built aside so reads aren't held up, then swapped in
+                Map<String, TodoEntry> entries = new HashMap<>();
+                TreeSet<TodoEntry> active = new TreeSet<>(BY_ORDER);
+                TreeSet<TodoEntry> completed = new TreeSet<>(BY_ORDER);
+                // Only the indexed values are read, no To-do is built from its JSON
+                Bucket.ObjectCursor<Todo> cursor = Todo.queryAllEntries(bucket).execute();
+                try {
+                    while (cursor.moveToNext()) {
+                        TodoEntry entry = Todo.entryAt(cursor);
+                        entries.put(entry.key, entry);
+                        (entry.done ? completed : active).add(entry);
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                Set<String> changed;
+                synchronized (TodoFilterIndex.this) {
+                    // A later seed started meanwhile, it reads everything this one did and reports
+                    if (generation != mSeedGeneration) return;
+
+                    if (!sameEntries(mEntries, entries)) {
+                        mEntries = entries;
+                        mActive = active;
+                        mCompleted = completed;
+                        invalidate(false);
+                        invalidate(true);
+                    }
+                    mChangesSinceReconcile = 0;
+                    mSeeded = true;
+                    mSeeding = false;
+                    changed = new HashSet<>(mChangedDuringSeed);
+                    mChangedDuringSeed.clear();
+                }
+
+                for (String key : changed) {
+                    refresh(bucket, key);
+                }
+                mListener.onFilterIndexReconciled();
+            }
+        });
+    }
+
+    // Every filter's entries as they are now, stamped with the sync sequence they reflect. Null while
+    // the index isn't seeded.
+    public synchronized TodoSnapshot snapshot(long sequence) {
+        if (!mSeeded) return null;
+
+        return new TodoSnapshot(sequence, getEntries(Filter.ALL), getEntries(Filter.ACTIVE), getEntries(Filter.COMPLETED));
+    }
+
+    // Guarded by this. The To-dos matching the filter in list order, the list is immutable and shared
+    // until the filter's partition changes.
+    private List<TodoEntry> getEntries(Filter filter) {
+        switch (filter) {
+            case ACTIVE:
+                if (mActiveList == null) mActiveList = toList(mActive);
+                return mActiveList;
+            case COMPLETED:
+                if (mCompletedList == null) mCompletedList = toList(mCompleted);
+                return mCompletedList;
+            default:
+                if (mAllList == null) mAllList = merge(mActive, mCompleted);
+                return mAllList;
+        }
+    }
+
+    // For bulk changes. The index still follows every change, but the checks against the bucket that
+    // would run during them are put off until the matching releaseReconcile() and run once.
+    public synchronized void holdReconcile() {
+        mReconcileHolds++;
+    }
+
+    public void releaseReconcile(Bucket<Todo> bucket) {
+        boolean reconcile;
+        synchronized (this) {
+            reconcile = --mReconcileHolds == 0 && mReconcileDue;
+            if (reconcile) mReconcileDue = false;
+        }
+
+        if (reconcile) reconcile(bucket);
+    }
+
+    // Called from Bucket.Listener.onSaveObject
+    public void onSaveObject(Bucket<Todo> bucket, Todo todo) {
+        update(bucket, todo.toEntry());
+    }
+
+    // Called from Bucket.Listener.onDeleteObject
+    public void onDeleteObject(Bucket<Todo> bucket, Todo todo) {
+        delete(bucket, todo.getSimperiumKey());
+    }
+
+    // Called from Bucket.Listener.onNetworkChange, looks up the new state of modified To-dos
+    public void onNetworkChange(Bucket<Todo> bucket, Bucket.ChangeType changeType, String key) {
+        if (changeType == Bucket.ChangeType.REMOVE) {
+            delete(bucket, key);
+            return;
+        }
+
+        // Bucket wide changes (indexing, resets) don't name an object, read everything again
+        if (key == null) {
+            seed(bucket);
+            return;
+        }
+
+        refresh(bucket, key);
+    }
+
+    private void refresh(Bucket<Todo> bucket, String key) {
+        try {
+            update(bucket, mCache.get(bucket, key).toEntry());
+        } catch (BucketObjectMissingException e) {
+            delete(bucket, key);
+        }
+    }
+
+    private void update(Bucket<Todo> bucket, TodoEntry entry) {
+        boolean reconcile;
+        synchronized (this) {
+            if (mSeeding) mChangedDuringSeed.add(entry.key);
+            put(entry);
+            reconcile = countChange();
+        }
+
+        if (reconcile) reconcile(bucket);
+    }
+
+    private void delete(Bucket<Todo> bucket, String key) {
+        boolean reconcile;
+        synchronized (this) {
+            if (mSeeding) mChangedDuringSeed.add(key);
+            TodoEntry previous = mEntries.remove(key);
+            if (previous != null) {
+                partition(previous.done).remove(previous);
+                invalidate(previous.done);
+            }
+            reconcile = countChange();
+        }
+
+        if (reconcile) reconcile(bucket);
+    }
+
+    // Compares the completed keys with the bucket's and reads the To-dos that disagree again
+    private void reconcile(final Bucket<Todo> bucket) {
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                Set<String> completedKeys = Todo.queryCompletedKeys(bucket);
+                Set<String> drifted = new HashSet<>();
+                synchronized (TodoFilterIndex.this) {
+                    for (TodoEntry entry : mCompleted) {
+                        if (!completedKeys.contains(entry.key)) drifted.add(entry.key);
+                    }
+                    for (String key : completedKeys) {
+                        TodoEntry entry = mEntries.get(key);
+                        if (entry == null || !entry.done) drifted.add(key);
+                    }
+                }
+
+                if (drifted.isEmpty()) return;
+
+                for (String key : drifted) {
+                    refresh(bucket, key);
+                }
+                mListener.onFilterIndexReconciled();
+            }
+        });
+    }
+
+    // Guarded by this
+    private void put(TodoEntry entry) {
+        TodoEntry previous = mEntries.put(entry.key, entry);
+        if (previous != null) {
+            if (isSame(previous, entry)) return;
+
+            partition(previous.done).remove(previous);
+            invalidate(previous.done);
+        }
+        partition(entry.done).add(entry);
+        invalidate(entry.done);
+    }
+
+    // Guarded by this
+    private boolean countChange() {
+        if (++mChangesSinceReconcile < RECONCILE_INTERVAL) return false;
+
+        mChangesSinceReconcile = 0;
+        if (mReconcileHolds > 0) {
+            mReconcileDue = true;
+            return false;
+        }
+        return true;
+    }
+
+    private TreeSet<TodoEntry> partition(boolean done) {
+        return done ? mCompleted : mActive;
+    }
+
+    private void invalidate(boolean done) {
+        if (done) {
+            mCompletedList = null;
+        } else {
+            mActiveList = null;
+        }
+        mAllList = null;
+    }
+
+    private static boolean isSame(TodoEntry left, TodoEntry right) {
+        return left.order == right.order && left.hasSameContent(right);
+    }
+
+    private static boolean sameEntries(Map<String, TodoEntry> left, Map<String, TodoEntry> right) {
+        if (left.size() != right.size()) return false;
+
+        for (TodoEntry entry : right.values()) {
+            TodoEntry other = left.get(entry.key);
+            if (other == null || !isSame(other, entry)) return false;
+        }
+        return true;
+    }
+
+    private static List<TodoEntry> toList(TreeSet<TodoEntry> entries) {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    // Both partitions are sorted already, one pass interleaves them
+    private static List<TodoEntry> merge(TreeSet<TodoEntry> left, TreeSet<TodoEntry> right) {
+        List<TodoEntry> entries = new ArrayList<>(left.size() + right.size());
+        Iterator<TodoEntry> lefts = left.iterator();
+        Iterator<TodoEntry> rights = right.iterator();
+        TodoEntry nextLeft = lefts.hasNext() ? lefts.next() : null;
+        TodoEntry nextRight = rights.hasNext() ? rights.next() : null;
+        while (nextLeft != null || nextRight != null) {
+            if (nextRight == null || (nextLeft != null && BY_ORDER.compare(nextLeft, nextRight) <= 0)) {
+                entries.add(nextLeft);
+                nextLeft = lefts.hasNext() ? lefts.next() : null;
+            } else {
+                entries.add(nextRight);
+                nextRight = rights.hasNext() ? rights.next() : null;
+            }
+        }
+        return Collections.unmodifiableList(entries);
+    }
+}
@@ -0,0 +1,59 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Collects imported To-dos BATCH_SIZE at a time as properties ready to save, so an import holds at
+ * most one batch in memory however large the file is. Ranks are handed out in file order after the
+ * last existing To-do, the file's own order values are not used. done is canonicalized like
+ * Todo.Schema does on ingest.
+ *
+ * TodoImportBenchmark runs imports through this class on the JVM, the Android side of an import is
+ * in TodoImporter.
+ */
+public final class TodoImportBatch {
+
+    public static final int BATCH_SIZE = 500;
+
+    private final JSONObject[] mProperties = new JSONObject[BATCH_SIZE];
+    private int mSize;
+    private double mLastOrder;
+
+    // lastOrder is the rank of the last To-do in the bucket, NaN if it is empty
+    public TodoImportBatch(double lastOrder) {
+        mLastOrder = lastOrder;
+    }
+
+    // Returns true once the batch is full and has to be saved and cleared
+    public boolean add(String title, boolean done) {
+        mLastOrder = Double.isNaN(mLastOrder) ? TodoOrdering.first() : TodoOrdering.after(mLastOrder);
+
+        JSONObject properties = new JSONObject();
+        try {
+            properties.put(TodoFields.TITLE_PROPERTY, title);
+            properties.put(TodoFields.DONE_PROPERTY, done ? TodoFields.DONE : TodoFields.NOT_DONE);
+            properties.put(TodoFields.ORDER_PROPERTY, mLastOrder);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+
+        mProperties[mSize++] = properties;
+        return mSize == BATCH_SIZE;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public JSONObject get(int index) {
+        return mProperties[index];
+    }
+
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mProperties[i] = null;
+        }
+        mSize = 0;
+    }
+}
@@ -0,0 +1,141 @@
+package com.simperium.simpletodo;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.simperium.client.Bucket;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streams To-dos from a JSON array or from NDJSON (one object per line) into the bucket on the
+ * bucket's background executor. Records are read with a pull parser and saved a TodoImportBatch at a
+ * time, so memory stays bounded however large the file is. Each record needs a title and may have a
+ * done value in any of the encodings TodoFields understands, other fields are ignored.
+ *
+ * Callers are expected to suspend the TodoRepository's indexing until onImportComplete(), which is
+ * always called, see TodoRepository.suspendIndexing(). A 100k To-do import then reads the bucket
+ * into the indexes once at the end instead of moving each new To-do into them as it is saved.
+ */
+public class TodoImporter {
+
+    public interface Listener {
+        // All callbacks are made from the bucket's background thread
+        void onImportProgress(int imported);
+
+        // error is null when the whole file was imported
+        void onImportComplete(int imported, IOException error);
+    }
+
+    // lastOrder is the rank of the last To-do in the list, NaN if it is empty. Closes the stream.
+    public static void importTodos(final Bucket<Todo> bucket, final InputStream in, final double lastOrder,
+                                   final Listener listener) {
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                TodoImportBatch batch = new TodoImportBatch(lastOrder);
+                int imported = 0;
+                IOException error = null;
+
+                JsonReader reader = null;
+                try {
+                    reader = new JsonReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+                    // Lenient allows the many top level objects of NDJSON
+                    reader.setLenient(true);
+
+                    boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+                    if (array) reader.beginArray();
+
+                    while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+                        if (readRecord(reader, batch)) {
+                            imported += saveBatch(bucket, batch);
+                            listener.onImportProgress(imported);
+                        }
+                    }
+                    if (array) reader.endArray();
+                } catch (IOException | IllegalStateException e) {
+                    error = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+                } finally {
+                    try {
+                        // Whatever was read before an error is kept
+                        imported += saveBatch(bucket, batch);
+                    } finally {
+                        close(reader, in);
+                        listener.onImportComplete(imported, error);
+                    }
+                }
+            }
+        });
+    }
+
+    // Returns true when the batch is full
+    private static boolean readRecord(JsonReader reader, TodoImportBatch batch) throws IOException {
+        String title = "";
+        boolean done = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals(TodoFields.TITLE_PROPERTY)) {
+                title = reader.nextString();
+            } else if (name.equals(TodoFields.DONE_PROPERTY)) {
+                done = readDone(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return batch.add(title, done);
+    }
+
+    private static boolean readDone(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+            case STRING:
+                // Numbers are read as strings so 1, 1.0 and "1" all decode the same way
+                String value = reader.nextString();
+                try {
+                    return TodoFields.decodeDone(Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    return TodoFields.decodeDone(value);
+                }
+            default:
+                reader.skipValue();
+                return false;
+        }
+    }
+
+    private static int saveBatch(Bucket<Todo> bucket, TodoImportBatch batch) {
+        int saved = batch.size();
+        for (int i = 0; i < saved; i++) {
+            Todo todo = bucket.newObject();
+            todo.setProperties(batch.get(i));
+            todo.save();
+        }
+        batch.clear();
+        return saved;
+    }
+
+    private static void close(JsonReader reader, InputStream in) {
+        try {
+            if (reader != null) {
+                reader.close();
+            } else {
+                in.close();
+            }
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private TodoImporter() {
+    }
+}
@@ -1,18 +1,28 @@
 package com.simperium.simpletodo;
 
+import android.annotation.TargetApi;
 import android.app.FragmentTransaction;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.design.widget.TabLayout;
 import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.helper.ItemTouchHelper;
 import android.text.Spannable;
 import android.text.SpannableString;
 import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
-import android.text.style.StrikethroughSpan;
 import android.text.style.StyleSpan;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -21,50 +31,131 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
 import android.widget.CheckBox;
-import android.widget.CursorAdapter;
 import android.widget.EditText;
 import android.widget.ImageButton;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
+import android.widget.Toast;
 
+import com.simperium.Simperium;
 import com.simperium.android.LoginActivity;
 import com.simperium.client.Bucket;
 import com.simperium.client.BucketObjectMissingException;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
- * The main list of To-dos. The list data is provided by a Simperium ObjectCursor for accessing
- * and managing To-dos. Note the implementation of Bucket.Listener, which allows for listening
- * for changes from Simperium
+ * The main list of To-dos. The list data is the TodoRepository's latest snapshot, subscribed to
+ * while the activity is resumed, and only the rows that changed between snapshots are rebound. The
+ * snapshot only has keys and ranks, the titles of the rows on screen are read by TodoRowWindows.
  */
 public class TodoListActivity extends AppCompatActivity
-        implements Bucket.Listener<Todo>, OnItemClickListener, OnEditorActionListener,
-        TrashIconProvider.OnClearCompletedListener, TodoEditorFragment.OnTodoEditorCompleteListener {
+        implements TodoRepository.OnSnapshotListener, OnEditorActionListener,
+        TrashIconProvider.OnClearCompletedListener, TodoEditorFragment.OnTodoEditorCompleteListener,
+        TodoListLoader.OnTodosLoadedListener, TodoBulkDelete.Listener,
+        TodoApplication.OnTodoBucketReadyListener, TodoSnapshotStore.OnSnapshotReadListener,
+        TodoWriteQueue.OnWriteFailedListener, TodoImporter.Listener, TodoExporter.Listener,
+        TodoRowWindows.OnWindowLoadedListener, SearchView.OnQueryTextListener,
+        MenuItemCompat.OnActionExpandListener, TabLayout.OnTabSelectedListener {
 
     private static final int ADD_ACTION_ID = 100;
 
     private static final String EMPTY_STRING = "";
     private static final String EDITOR_FRAGMENT = "editor_dialog";
+    private static final String METRICS_FILE = "metrics.txt";
+    private static final String FILTER_STATE = "filter";
+
+    private static final int REQUEST_IMPORT = 1;
+    private static final int REQUEST_EXPORT = 2;
+    private static final String EXPORT_MIME_TYPE = "application/json";
 
     private TodoAdapter mAdapter;
     private Bucket<Todo> mTodoBucket;
+    private TodoRepository mRepository;
+    private TodoWriteQueue mWriteQueue;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // The latest snapshot from the repository, null until the first one arrives
+    private TodoSnapshot mSnapshot;
+    // Snapshots wait while a row is dragged, so a sync doesn't replace the list under the user's finger
+    private boolean mDragging;
+    // Sync sequences of the latest requested and the delivered list, -1 before the first load
+    private long mRequestedSequence = -1;
+    private long mDeliveredSequence = -1;
+    // The tab shown, and the filters of the latest requested and the delivered list
+    private TodoFilterIndex.Filter mFilter = TodoFilterIndex.Filter.ALL;
+    private TodoFilterIndex.Filter mRequestedFilter;
+    private TodoFilterIndex.Filter mDeliveredFilter;
     private TrashIconProvider mTrashIconProvider;
     private EditText mEditText;
+    private TodoListLoader mListLoader;
+    private TodoSnapshotStore mSnapshotStore;
+    private TodoRowWindows mRowWindows;
+    // The last whole list delivered, stored with the titles loaded for its first window
+    private List<TodoEntry> mStoredEntries;
+    // The search typed so far, null while search is closed
+    private String mSearchQuery;
+    // The badge changed while searching, rebuilding the menu then would have closed search
+    private boolean mMenuStale;
+    private ProgressDialog mProgressDialog;
+    // Shown until the stored or the first live snapshot has been drawn
+    private View mLoadingView;
+    private boolean mFirstLoadDrawn;
+    private boolean mLiveLoadDrawn;
+    // Shown for To-dos without a title, built once and shared by every row
+    private SpannableString mEmptyTitle;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        StartupTrace.beginSection("TodoListActivity.onCreate");
+        // Simperium is created in the background while the list is set up
+        ((TodoApplication) getApplication()).startInit();
         setContentView(R.layout.todo_list);
+        mLoadingView = findViewById(R.id.loading);
+
+        mEmptyTitle = emptyTitle();
+
+        mListLoader = new TodoListLoader(this);
+        mSnapshotStore = new TodoSnapshotStore(this);
+        mRowWindows = new TodoRowWindows(((TodoApplication) getApplication()).getTodoCache(), this);
 
         // Initialize the TodoAdapter
         mAdapter = new TodoAdapter();
-        ListView listView = (ListView) findViewById(android.R.id.list);
+        RecyclerView listView = (RecyclerView) findViewById(R.id.list);
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        listView.addItemDecoration(new DividerItemDecoration(this));
         listView.setAdapter(mAdapter);
-        listView.setOnItemClickListener(this);
+
+        // All, Active and Completed, the action bar drops its shadow so the tabs read as part of it
+        if (savedInstanceState != null) {
+            mFilter = TodoFilterIndex.Filter.valueOf(savedInstanceState.getString(FILTER_STATE, mFilter.name()));
+        }
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setElevation(0);
+        }
+        TabLayout tabs = (TabLayout) findViewById(R.id.filter_tabs);
+        tabs.addTab(tabs.newTab().setText(R.string.filter_all), mFilter == TodoFilterIndex.Filter.ALL);
+        tabs.addTab(tabs.newTab().setText(R.string.filter_active), mFilter == TodoFilterIndex.Filter.ACTIVE);
+        tabs.addTab(tabs.newTab().setText(R.string.filter_completed), mFilter == TodoFilterIndex.Filter.COMPLETED);
+        tabs.setOnTabSelectedListener(this);
+
+        // Draw the list as it was last time while Simperium starts
+        mSnapshotStore.read(this);
+
+        // Long press and drag to reorder, see TodoDragCallback
+        new ItemTouchHelper(new TodoDragCallback()).attachToRecyclerView(listView);
 
         mEditText = (EditText) findViewById(R.id.new_task_text);
         mEditText.setOnEditorActionListener(this);
@@ -76,44 +167,117 @@ public class TodoListActivity extends AppCompatActivity
                 addNewTodo();
             }
         });
+        StartupTrace.endSection("TodoListActivity.onCreate");
     }
 
     @Override
     protected void onResume() {
         super.onResume();
 
-        TodoApplication app = (TodoApplication) getApplication();
+        // Simperium is created in the background, this calls back once it is ready
+        ((TodoApplication) getApplication()).getTodoBucket(this);
+    }
 
+    @Override
+    public void onTodoBucketReady(Simperium simperium, Bucket<Todo> bucket) {
         // Prompt for login if we don't have an authorized user
         // The LoginActivity can be provided a custom logo by adding a logo_login drawable resource
-        if (app.getSimperium().needsAuthorization()) {
+        if (simperium != null && !BuildConfig.SIMPERIUM_OFFLINE && simperium.needsAuthorization()) {
             Intent intent = new Intent(this, LoginActivity.class);
             intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             startActivity(intent);
+            clearSignedOutUser();
         }
 
         // Get the To-do bucket from the application instance
-        mTodoBucket = app.getTodoBucket();
+        mTodoBucket = bucket;
+        mRepository = ((TodoApplication) getApplication()).getTodoRepository();
+        mWriteQueue = ((TodoApplication) getApplication()).getWriteQueue();
 
-        // Add the bucket listeners and start the bucket
-        if (mTodoBucket != null) {
-            mTodoBucket.addListener(this);
-            mTodoBucket.start();
-            refreshTodos(mTodoBucket);
+        if (mTodoBucket == null) {
+            mLoadingView.setVisibility(View.GONE);
+            return;
         }
+        mRowWindows.setBucket(mTodoBucket);
+
+        // The repository keeps the bucket syncing while anyone is subscribed and catches up with what
+        // changed in between, the latest snapshot is handed over right away
+        mRepository.subscribe(this, mMainHandler);
+        mWriteQueue.setOnWriteFailedListener(this);
     }
 
-    // Make sure to stop buckets when the activity is paused
+    // Unsubscribes when the activity is paused, the sync owner stops the bucket after a grace period
     @Override
     protected void onPause() {
-        if (mTodoBucket != null) {
-            mTodoBucket.removeListener(this);
-            mTodoBucket.stop();
+        ((TodoApplication) getApplication()).cancelTodoBucketRequest(this);
+        mListLoader.cancel();
+
+        if (mRepository != null) {
+            mRepository.unsubscribe(this);
+        }
+        // Don't leave edits waiting on the coalescing window if the process is about to go away
+        if (mWriteQueue != null) {
+            mWriteQueue.flush();
         }
 
         super.onPause();
     }
 
+    // adb shell dumpsys activity com.simperium.simpletodo prints the metrics and recent log entries.
+    // Followed by "trace on" or "level verbose" it only switches logging, see TodoLog.setOption().
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length == 2) {
+            boolean set = TodoLog.setOption(args[0], args[1]);
+            writer.println(prefix + (set ? "Log: " : "Unknown log option, log: ") + TodoLog.describe());
+            return;
+        }
+
+        super.dump(prefix, fd, writer, args);
+        writer.println(prefix + "Log: " + TodoLog.describe());
+        writer.println(prefix + "Metrics:");
+        TodoMetrics.dump(writer);
+        writer.println(prefix + "Recent log:");
+        TodoLog.dump(writer);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(FILTER_STATE, mFilter.name());
+    }
+
+    @Override
+    public void onTabSelected(TabLayout.Tab tab) {
+        mFilter = TodoFilterIndex.Filter.values()[tab.getPosition()];
+        refreshTodos();
+    }
+
+    @Override
+    public void onTabUnselected(TabLayout.Tab tab) {
+        // noop
+    }
+
+    @Override
+    public void onTabReselected(TabLayout.Tab tab) {
+        // noop
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mWriteQueue != null) {
+            mWriteQueue.setOnWriteFailedListener(null);
+        }
+        mListLoader.shutdown();
+        mRowWindows.shutdown();
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
+
+        super.onDestroy();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
@@ -124,12 +288,253 @@ public class TodoListActivity extends AppCompatActivity
 
         if (mTrashIconProvider != null) {
             mTrashIconProvider.setOnClearCompletedListener(this);
+            mTrashIconProvider.setBadgeCount(completedCount());
+        }
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(this);
+        MenuItemCompat.setOnActionExpandListener(searchItem, this);
+
+        // Import and export use the storage access framework
+        boolean documents = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        menu.findItem(R.id.action_import).setVisible(documents);
+        menu.findItem(R.id.action_export).setVisible(documents);
+        menu.findItem(R.id.action_metrics).setVisible(BuildConfig.DEBUG);
+        // The replay saves thousands of To-dos, which must never sync to a real account
+        menu.findItem(R.id.action_replay_load).setVisible(BuildConfig.DEBUG && BuildConfig.SIMPERIUM_OFFLINE);
+
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    // The index is built the first time search is opened, there is nothing to search before the bucket
+    // is ready
+    @Override
+    public boolean onMenuItemActionExpand(MenuItem item) {
+        if (mRepository == null) return false;
+
+        mSearchQuery = EMPTY_STRING;
+        mRepository.buildSearch();
+        return true;
+    }
+
+    @Override
+    public boolean onMenuItemActionCollapse(MenuItem item) {
+        mSearchQuery = null;
+        mAdapter.clearSearchResults();
+        if (mMenuStale) {
+            mMenuStale = false;
+            supportInvalidateOptionsMenu();
+        }
+        return true;
+    }
+
+    // SearchView clears its text once collapsed, after search has been closed
+    @Override
+    public boolean onQueryTextChange(String query) {
+        if (mSearchQuery == null) return true;
+
+        mSearchQuery = query;
+        showSearchResults();
+        return true;
+    }
+
+    // Results are already shown as the query is typed, SearchView only hides the keyboard
+    @Override
+    public boolean onQueryTextSubmit(String query) {
+        return false;
+    }
+
+    // Shows the To-dos matching the search and the tab over the list, or the list when nothing is typed.
+    // The repository publishes a snapshot once the search index is built, which searches again.
+    private void showSearchResults() {
+        if (mSearchQuery == null || mRepository == null) return;
+
+        if (TextUtils.getTrimmedLength(mSearchQuery) == 0) {
+            mAdapter.clearSearchResults();
+            return;
+        }
+
+        List<TodoRow> results = mRepository.search(mSearchQuery);
+        if (mFilter != TodoFilterIndex.Filter.ALL) {
+            boolean done = mFilter == TodoFilterIndex.Filter.COMPLETED;
+            List<TodoRow> filtered = new ArrayList<>(results.size());
+            for (TodoRow row : results) {
+                if (row.done == done) filtered.add(row);
+            }
+            results = filtered;
+        }
+
+        // Results are read in full already, their titles don't have to be loaded again
+        mRowWindows.put(results);
+        List<TodoEntry> entries = new ArrayList<>(results.size());
+        for (TodoRow row : results) {
+            entries.add(TodoEntry.of(row));
+        }
+        mAdapter.setSearchResults(entries);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_metrics) {
+            showMetrics();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_import) {
+            pickImportDocument();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_export) {
+            pickExportDocument();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_replay_load) {
             if (mTodoBucket != null) {
-                mTrashIconProvider.setBadgeCount(Todo.countCompleted(mTodoBucket));
+                TodoLoadGenerator.replay(this, mTodoBucket);
             }
+            return true;
         }
+        return super.onOptionsItemSelected(item);
+    }
 
-        return super.onCreateOptionsMenu(menu);
+    // JSON or NDJSON, which have no reliable MIME type, so any file can be picked
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickImportDocument() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(intent, REQUEST_IMPORT);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void pickExportDocument() {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(EXPORT_MIME_TYPE);
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.export_file_name));
+        startActivityForResult(intent, REQUEST_EXPORT);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null || mTodoBucket == null) return;
+
+        try {
+            if (requestCode == REQUEST_IMPORT) {
+                startImport(getContentResolver().openInputStream(data.getData()));
+            } else if (requestCode == REQUEST_EXPORT) {
+                TodoExporter.exportTodos(mTodoBucket, getContentResolver().openOutputStream(data.getData()), this);
+            }
+        } catch (IOException e) {
+            TodoLog.w("Could not open " + data.getData(), e);
+            Toast.makeText(this, R.string.transfer_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void startImport(InputStream in) {
+        if (mProgressDialog != null) return;
+
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setIndeterminate(true);
+        mProgressDialog.setMessage(getString(R.string.importing));
+        mProgressDialog.setCancelable(false);
+        mProgressDialog.show();
+
+        // New To-dos go after the last one. Every save fires a callback, so snapshots and indexing wait
+        // for the end. The completion callback resumes, also when the import stops early.
+        mRepository.suspendIndexing();
+        try {
+            TodoImporter.importTodos(mTodoBucket, in, lastOrder(), this);
+        } catch (RejectedExecutionException e) {
+            TodoLog.w("Could not start the import", e);
+            try {
+                in.close();
+            } catch (IOException closeError) {
+                // nothing to do
+            }
+            onImportComplete(0, new IOException(e.getMessage(), e));
+        }
+    }
+
+    @Override
+    public void onImportProgress(final int imported) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mProgressDialog != null) {
+                    mProgressDialog.setMessage(getResources().getQuantityString(R.plurals.imported_todos, imported, imported));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onImportComplete(final int imported, final IOException error) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    TodoLog.w("Import stopped after " + imported + " todos", error);
+                }
+                if (mProgressDialog != null) {
+                    mProgressDialog.dismiss();
+                    mProgressDialog = null;
+                }
+                mRepository.resumeIndexing();
+                Toast.makeText(TodoListActivity.this, error == null
+                        ? getResources().getQuantityString(R.plurals.imported_todos, imported, imported)
+                        : getString(R.string.transfer_failed), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    @Override
+    public void onExportComplete(final int exported, final IOException error) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    TodoLog.w("Export failed after " + exported + " todos", error);
+                }
+                Toast.makeText(TodoListActivity.this, error == null
+                        ? getResources().getQuantityString(R.plurals.exported_todos, exported, exported)
+                        : getString(R.string.transfer_failed), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    // Debug builds only. Shows the metrics and saves them to files/metrics.txt for field reports,
+    // adb shell run-as com.simperium.simpletodo cat files/metrics.txt
+    private void showMetrics() {
+        StringWriter dump = new StringWriter();
+        PrintWriter writer = new PrintWriter(dump);
+        TodoMetrics.dump(writer);
+        writer.flush();
+        final String metrics = dump.toString();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileWriter file = new FileWriter(new File(getFilesDir(), METRICS_FILE));
+                    try {
+                        file.write(metrics);
+                    } finally {
+                        file.close();
+                    }
+                } catch (IOException e) {
+                    TodoLog.w("Could not write " + METRICS_FILE, e);
+                }
+            }
+        }, "metrics-dump").start();
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_metrics)
+                .setMessage(metrics)
+                .setPositiveButton(android.R.string.ok, null)
+                .show();
     }
 
     @Override
@@ -159,47 +564,191 @@ public class TodoListActivity extends AppCompatActivity
         InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
         imm.hideSoftInputFromWindow(mEditText.getWindowToken(), 0x0);
 
+        double lastOrder = lastOrder();
         Todo todo = mTodoBucket.newObject();
         todo.setTitle(label);
-        todo.setOrder(mAdapter.getCount());
+        todo.setOrder(Double.isNaN(lastOrder) ? TodoOrdering.first() : TodoOrdering.after(lastOrder));
         todo.save();
     }
 
+    // The rank of the last To-do in the list, NaN when it is empty. Search results and filtered lists
+    // don't count.
+    private double lastOrder() {
+        if (mFilter != TodoFilterIndex.Filter.ALL) {
+            return mSnapshot == null ? Double.NaN : mSnapshot.getLastOrder();
+        }
+
+        List<TodoEntry> entries = mAdapter.getListEntries();
+        return entries.isEmpty() ? Double.NaN : entries.get(entries.size() - 1).order;
+    }
+
+    private void onTodoClicked(TodoAdapter.TodoRowHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (mTodoBucket == null || position == RecyclerView.NO_POSITION) return;
+
+        TodoEntry entry = mAdapter.getItem(position);
+
+        // Shown right away, saved once the taps stop. Tapping back to the saved state saves nothing.
+        mWriteQueue.toggleDone(entry.key, entry.done);
+        mAdapter.notifyItemChanged(position);
+    }
+
     @Override
-    public void onItemClick(AdapterView<?> listView, View v, int position, long id) {
-        Todo todo = mAdapter.getItem(position);
-        todo.toggleDone();
-        CheckBox checkbox = (CheckBox) v.findViewById(R.id.checkbox);
-        checkbox.setChecked(todo.isDone());
+    public void onTodoSnapshot(TodoSnapshot snapshot) {
+        mSnapshot = snapshot;
+        refreshTodos();
     }
 
-    // The Bucket.Listener callbacks will come from a different thread.
-    // If you need to update the UI, you must use runOnUiThread()
-    private void refreshTodos(final Bucket<Todo> todos) {
+    // Diffs the tab's entries from the latest snapshot against the list on screen in the background.
+    // Must be called on the UI thread.
+    private void refreshTodos() {
+        if (mSnapshot == null || mDragging) return;
+
+        mRequestedSequence = mSnapshot.getSequence();
+        mRequestedFilter = mFilter;
+        mListLoader.load(mSnapshot.getEntries(mFilter));
+    }
+
+    // Called on the UI thread with the results of the latest refreshTodos()
+    @Override
+    public void onTodosLoaded(List<TodoEntry> entries, TodoListDiff diff) {
+        // Only the latest load is delivered, so the list reflects every change up to its sequence
+        mDeliveredSequence = mRequestedSequence;
+        mDeliveredFilter = mRequestedFilter;
+        if (mWriteQueue != null) {
+            mWriteQueue.onListDelivered(mDeliveredSequence);
+        }
+        long start = System.nanoTime();
+        mAdapter.setEntries(entries, diff);
+        // The search index was updated by the same callbacks that led to this snapshot
+        showSearchResults();
+        updateBadgeCount();
+        TodoMetrics.sListApply.recordSince(start);
+        // Only the whole list is drawn at startup
+        if (mDeliveredFilter == TodoFilterIndex.Filter.ALL) {
+            mStoredEntries = entries;
+            writeSnapshot();
+        }
+
+        if (!mLiveLoadDrawn) {
+            mLiveLoadDrawn = true;
+            StartupTrace.mark("live list drawn");
+        }
+        onFirstLoadDrawn();
+    }
+
+    @Override
+    public void onSnapshotRead(List<TodoEntry> entries, List<TodoRow> rows) {
+        // Too late if the bucket already delivered, or nothing was stored. It is the top of the whole
+        // list, the first live load brings the rest.
+        if (mLiveLoadDrawn || entries.isEmpty() || mFilter != TodoFilterIndex.Filter.ALL) return;
+
+        // The live snapshot is diffed against these entries, so only what changed since is rebound
+        mRowWindows.put(rows);
+        mAdapter.setEntries(entries, null);
+        mListLoader.onRowsChangedLocally(entries);
+        StartupTrace.mark("stored list drawn");
+        onFirstLoadDrawn();
+    }
+
+    // Rows that were loading are bound again, the first window's titles are stored with the list
+    @Override
+    public void onWindowLoaded(List<TodoEntry> entries, int start, int count) {
+        mAdapter.onWindowLoaded(entries, start, count);
+        if (start == 0 && entries == mStoredEntries) {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() {
+        mSnapshotStore.write(mStoredEntries, mRowWindows.getLeadingRows(mStoredEntries, TodoRowWindows.WINDOW_SIZE));
+    }
+
+    // Everything kept of the To-dos outside the bucket, the next user must not see any of it
+    private void clearSignedOutUser() {
+        mSnapshotStore.clear();
+        mRowWindows.clear();
+        ((TodoApplication) getApplication()).clearWidget();
+    }
+
+    private void onFirstLoadDrawn() {
+        if (mFirstLoadDrawn) return;
+
+        mFirstLoadDrawn = true;
+        mLoadingView.setVisibility(View.GONE);
+    }
+
+    // Only invalidates the menu when the completed count actually changed. While searching that waits
+    // until search is closed, rebuilding the menu would close it.
+    private void updateBadgeCount() {
+        if (mTrashIconProvider == null) return;
+
+        if (mTrashIconProvider.updateBadgeCount(completedCount())) {
+            if (mSearchQuery == null) {
+                supportInvalidateOptionsMenu();
+            } else {
+                mMenuStale = true;
+            }
+        }
+    }
+
+    private int completedCount() {
+        return mSnapshot == null ? 0 : mSnapshot.getCompletedCount();
+    }
+
+    @Override
+    public void onClearCompleted() {
+        if (mTodoBucket == null || mProgressDialog != null) return;
+
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setMessage(getString(R.string.clearing_completed));
+        mProgressDialog.setCancelable(false);
+        mProgressDialog.show();
+
+        // Every delete fires its own callback, hold back snapshots until the last one. The completion
+        // callback resumes, also when the delete stops early.
+        mRepository.suspend();
+        try {
+            TodoBulkDelete.deleteCompleted(mTodoBucket, this);
+        } catch (RejectedExecutionException e) {
+            TodoLog.w("Could not start clearing completed todos", e);
+            onBulkDeleteComplete(0);
+        }
+    }
+
+    @Override
+    public void onBulkDeleteProgress(final int deleted, final int total) {
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                mAdapter.requeryBucket(todos);
-                if (mTrashIconProvider != null) {
-                    boolean changed = mTrashIconProvider.updateBadgeCount(Todo.countCompleted(todos));
-                    if (changed) {
-                        supportInvalidateOptionsMenu();
-                    }
-                }
+                if (mProgressDialog == null) return;
 
+                mProgressDialog.setMax(total);
+                mProgressDialog.setProgress(deleted);
             }
         });
     }
 
     @Override
-    public void onClearCompleted() {
-        if (mTodoBucket == null) return;
-
-        Todo.deleteCompleted(mTodoBucket);
+    public void onBulkDeleteComplete(final int deleted) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+                    TodoLog.d("Cleared " + deleted + " completed todos");
+                }
+                if (mProgressDialog != null) {
+                    mProgressDialog.dismiss();
+                    mProgressDialog = null;
+                }
+                mRepository.resume();
+            }
+        });
     }
 
-    private void onEditTodo(Todo todo) {
-        TodoEditorFragment fragment = TodoEditorFragment.newInstance(todo);
+    private void onEditTodo(TodoRow row) {
+        TodoEditorFragment fragment = TodoEditorFragment.newInstance(row);
         FragmentTransaction transaction = getFragmentManager().beginTransaction();
         transaction.add(fragment, EDITOR_FRAGMENT);
         transaction.commit();
@@ -208,12 +757,10 @@ public class TodoListActivity extends AppCompatActivity
 
     @Override
     public void onTodoEdited(String key, String label) {
-        try {
-            Todo todo = mTodoBucket.get(key);
-            todo.setTitle(label);
-            todo.save();
-        } catch (BucketObjectMissingException e) {
-            e.printStackTrace();
+        // Looked up and saved in the background, edits to the same To-do in quick succession are
+        // written once
+        if (mWriteQueue != null) {
+            mWriteQueue.submitTitle(key, label);
         }
 
         if (getCurrentFocus() != null) {
@@ -222,77 +769,314 @@ public class TodoListActivity extends AppCompatActivity
         }
     }
 
-    // List adapter for the To-do list. Backed by a Simperium ObjectCursor
-    class TodoAdapter extends CursorAdapter {
+    // The To-do was deleted, probably remotely, before an edit to it could be saved
+    @Override
+    public void onTodoMissing(String key) {
+        TodoLog.w("Could not save an edit to deleted todo " + key);
+        Toast.makeText(this, R.string.edited_todo_deleted, Toast.LENGTH_SHORT).show();
+    }
+
+    // Saves the new rank of a To-do dropped at the position. Only the moved To-do is written, unless
+    // its neighbours are too close together in which case the ranks around them are spread out once
+    // the move is saved.
+    private void onTodoMoved(int position) {
+        if (mTodoBucket == null) return;
 
-        TodoAdapter() {
-            super(TodoListActivity.this, null, false);
+        TodoEntry entry = mAdapter.getItem(position);
+        int count = mAdapter.getItemCount();
+        double previous = position > 0 ? mAdapter.getItem(position - 1).order : Double.NaN;
+        double next = position < count - 1 ? mAdapter.getItem(position + 1).order : Double.NaN;
+        final double rank = TodoOrdering.forDrop(previous, next, entry.order);
+
+        mAdapter.replaceItem(position, entry.withOrder(rank));
+
+        final List<String> keys;
+        final double[] ranks;
+        if (TodoOrdering.needsRebalance(previous, next)) {
+            keys = new ArrayList<>(count);
+            ranks = new double[count];
+            for (int i = 0; i < count; i++) {
+                TodoEntry item = mAdapter.getItem(i);
+                keys.add(item.key);
+                ranks[i] = item.order;
+            }
+        } else {
+            keys = null;
+            ranks = null;
         }
 
-        public void requeryBucket(Bucket<Todo> todos) {
-            // Returns a BucketObject cursor for all To-dos
-            swapCursor(Todo.queryAll(todos).execute());
+        final String key = entry.key;
+        final Bucket<Todo> bucket = mTodoBucket;
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Todo todo = bucket.get(key);
+                    todo.setOrder(rank);
+                    todo.save();
+                } catch (BucketObjectMissingException e) {
+                    TodoLog.w("Could not save the order of " + key, e);
+                }
+                // After the move is saved, so the drop is kept whatever happens to the rebalance
+                if (keys != null) {
+                    TodoRebalancer.rebalance(bucket, keys, ranks);
+                }
+            }
+        });
+    }
+
+    // Moves rows while dragging and saves the drop position. Snapshots are held back during the drag
+    // so a sync doesn't replace the list under the user's finger.
+    private class TodoDragCallback extends ItemTouchHelper.SimpleCallback {
+
+        private int mDropPosition = RecyclerView.NO_POSITION;
+
+        TodoDragCallback() {
+            super(ItemTouchHelper.UP | ItemTouchHelper.DOWN, 0);
+        }
+
+        // Stored rows are shown before the bucket is ready, there is nowhere to save a move yet.
+        // Search results and filtered lists leave out the neighbours a new rank would be taken from.
+        @Override
+        public boolean isLongPressDragEnabled() {
+            return mTodoBucket != null && !mAdapter.hasSearchResults() && mFilter == TodoFilterIndex.Filter.ALL;
+        }
+
+        @Override
+        public boolean onMove(RecyclerView recyclerView, RecyclerView.ViewHolder from, RecyclerView.ViewHolder to) {
+            mAdapter.moveItem(from.getAdapterPosition(), to.getAdapterPosition());
+            mDropPosition = to.getAdapterPosition();
+            return true;
+        }
+
+        @Override
+        public void onSelectedChanged(RecyclerView.ViewHolder viewHolder, int actionState) {
+            super.onSelectedChanged(viewHolder, actionState);
+            if (actionState == ItemTouchHelper.ACTION_STATE_DRAG) {
+                mDropPosition = RecyclerView.NO_POSITION;
+                mDragging = true;
+                mListLoader.cancel();
+            }
         }
 
-        // Get the bucket object at the position
-        public Todo getItem(int position) {
-            Bucket.ObjectCursor<Todo> cursor = (Bucket.ObjectCursor<Todo>) super.getItem(position);
-            return cursor.getObject();
+        @Override
+        public void clearView(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+            super.clearView(recyclerView, viewHolder);
+            if (mDropPosition != RecyclerView.NO_POSITION) {
+                onTodoMoved(mDropPosition);
+                mDropPosition = RecyclerView.NO_POSITION;
+            }
+            mAdapter.publishLocalChanges();
+            // Catch up with the latest snapshot, which may have arrived or been cancelled during the drag
+            mDragging = false;
+            refreshTodos();
         }
 
         @Override
-        public void bindView(View view, Context context, Cursor cursor) {
-            // Cast the Cursor to the Simperium ObjectCursor
-            Bucket.ObjectCursor<Todo> bucketCursor = (Bucket.ObjectCursor<Todo>) cursor;
-            final Todo todo = bucketCursor.getObject();
+        public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
+            // swiping is disabled
+        }
+    }
 
-            TodoRowHolder viewHolder = (TodoRowHolder) view.getTag(R.id.todo_row_holder);
+    // List adapter for the To-do list. Backed by an immutable snapshot of TodoEntries, updated with
+    // keyed diffs so only inserted, removed, moved or changed rows are bound again. Titles come from
+    // mRowWindows, rows still loading bind as empty placeholders. Search results are shown in place of
+    // the list, which is kept behind them and restored when search is closed.
+    class TodoAdapter extends RecyclerView.Adapter<TodoAdapter.TodoRowHolder>
+            implements TodoListDiff.Callback {
 
-            Spannable title = new SpannableString(todo.getTitle());
+        // Past this many operations a full rebind is cheaper than animating each one
+        private static final int MAX_DIFF_OPERATIONS = 100;
 
-            if (TextUtils.isEmpty(title)) {
-                title = emptyTitle();
+        private List<TodoEntry> mEntries = Collections.emptyList();
+        // True once mEntries is a private copy that can be edited in place
+        private boolean mEntriesEditable;
+        // The list behind the search results while they are shown, null otherwise
+        private List<TodoEntry> mListEntries;
+
+        // While search results are shown this only replaces the list behind them
+        public void setEntries(List<TodoEntry> entries, TodoListDiff diff) {
+            if (mListEntries != null) {
+                mListEntries = entries;
+                return;
             }
 
-            boolean done = todo.isDone();
+            mEntries = entries;
+            mEntriesEditable = false;
+            if (diff == null || diff.getOperationCount() > MAX_DIFF_OPERATIONS) {
+                notifyDataSetChanged();
+            } else {
+                diff.dispatchTo(this);
+            }
+        }
 
-            if (done)
-                title.setSpan(new StrikethroughSpan(), 0, title.length(), 0x0);
+        public TodoEntry getItem(int position) {
+            return mEntries.get(position);
+        }
 
-            viewHolder.labelView.setText(title);
-            viewHolder.checkBox.setChecked(done);
-            viewHolder.button.setOnClickListener(new View.OnClickListener() {
+        // The row at the position when its title is loaded and up to date, null otherwise
+        public TodoRow getLoadedRow(int position) {
+            TodoRow row = mRowWindows.get(mEntries, position);
+            return row != null && mEntries.get(position).hasTitleOf(row) ? row : null;
+        }
 
-                @Override
-                public void onClick(View v) {
-                    onEditTodo(todo);
-                }
+        // Rows read for the list on screen are bound again. Positions from an older list no longer
+        // say where those rows are now, then every row on screen is.
+        public void onWindowLoaded(List<TodoEntry> entries, int start, int count) {
+            if (entries == mEntries) {
+                notifyItemRangeChanged(start, count);
+            } else {
+                notifyItemRangeChanged(0, mEntries.size());
+            }
+        }
+
+        // Results are never diffed, they change wholesale as the query is typed
+        public void setSearchResults(List<TodoEntry> results) {
+            if (mListEntries == null) {
+                publishLocalChanges();
+                mListEntries = mEntries;
+            }
+            mEntries = results;
+            mEntriesEditable = false;
+            notifyDataSetChanged();
+        }
+
+        public void clearSearchResults() {
+            if (mListEntries == null) return;
+
+            mEntries = mListEntries;
+            mListEntries = null;
+            notifyDataSetChanged();
+        }
+
+        public boolean hasSearchResults() {
+            return mListEntries != null;
+        }
+
+        // The whole list, also while search results are shown
+        public List<TodoEntry> getListEntries() {
+            return mListEntries != null ? mListEntries : mEntries;
+        }
+
+        // Local edits made while dragging, the snapshot is copied once on the first edit
+        public void moveItem(int from, int to) {
+            List<TodoEntry> entries = editableEntries();
+            entries.add(to, entries.remove(from));
+            notifyItemMoved(from, to);
+        }
+
+        public void replaceItem(int position, TodoEntry entry) {
+            editableEntries().set(position, entry);
+        }
+
+        // Hands the edited entries to the loader so the next snapshot is diffed against what is on screen
+        public void publishLocalChanges() {
+            if (!mEntriesEditable) return;
+
+            mEntries = Collections.unmodifiableList(mEntries);
+            mEntriesEditable = false;
+            mListLoader.onRowsChangedLocally(mEntries);
+        }
+
+        private List<TodoEntry> editableEntries() {
+            if (!mEntriesEditable) {
+                mEntries = new ArrayList<>(mEntries);
+                mEntriesEditable = true;
+            }
+            return mEntries;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mEntries.size();
+        }
 
-            });
+        @Override
+        public void onBindViewHolder(TodoRowHolder viewHolder, int position) {
+            long start = System.nanoTime();
+            TodoEntry entry = mEntries.get(position);
+            TodoRow row = mRowWindows.get(mEntries, position);
+
+            // Nothing here allocates: the title is already a String, the empty title is built once
+            // and completed rows are struck through with a paint flag instead of a new span. The
+            // done state is the entry's, a row that is still loading only lacks its title.
+            CharSequence title = row == null ? EMPTY_STRING : TextUtils.isEmpty(row.title) ? mEmptyTitle : row.title;
+            boolean done = mWriteQueue == null ? entry.done : mWriteQueue.getDone(entry.key, entry.done);
+            TextView labelView = viewHolder.labelView;
+            int paintFlags = labelView.getPaintFlags();
+            labelView.setPaintFlags(done ? paintFlags | Paint.STRIKE_THRU_TEXT_FLAG
+                    : paintFlags & ~Paint.STRIKE_THRU_TEXT_FLAG);
+            labelView.setText(title);
+            viewHolder.checkBox.setChecked(done);
+            TodoMetrics.sBind.recordSince(start);
         }
 
         @Override
-        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        public TodoRowHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = getLayoutInflater().inflate(R.layout.todo_row, parent, false);
             TextView textView = (TextView) view.findViewById(R.id.label);
             CheckBox checkBox = (CheckBox) view.findViewById(R.id.checkbox);
             ImageButton button = (ImageButton) view.findViewById(R.id.edit_button);
-            TodoRowHolder holder = new TodoRowHolder(textView, checkBox, button);
-            view.setTag(R.id.todo_row_holder, holder);
-            return view;
+            return new TodoRowHolder(view, textView, checkBox, button);
+        }
+
+        // TodoListDiff.Callback, applies a snapshot diff to the RecyclerView
+        @Override
+        public void onRemoved(int position) {
+            notifyItemRemoved(position);
         }
 
-        private final class TodoRowHolder {
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onInserted(int position) {
+            notifyItemInserted(position);
+        }
+
+        @Override
+        public void onChanged(int position) {
+            notifyItemChanged(position);
+        }
+
+        // One click listener per holder for both the row and its edit button, the row is looked
+        // up from the holder's position when clicked so binding doesn't create listeners
+        final class TodoRowHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
             public final TextView labelView;
             public final CheckBox checkBox;
             public final ImageButton button;
 
-            public TodoRowHolder(TextView tv, CheckBox cb, ImageButton b) {
+            public TodoRowHolder(View view, TextView tv, CheckBox cb, ImageButton b) {
+                super(view);
                 labelView = tv;
                 checkBox = cb;
                 button = b;
+                view.setOnClickListener(this);
+                button.setOnClickListener(this);
             }
+
+            @Override
+            public void onClick(View v) {
+                if (v == button) {
+                    onEditClicked(this);
+                } else {
+                    onTodoClicked(this);
+                }
+            }
+        }
+    }
+
+    private void onEditClicked(TodoAdapter.TodoRowHolder holder) {
+        int position = holder.getAdapterPosition();
+        if (mTodoBucket == null || position == RecyclerView.NO_POSITION) return;
+
+        // The title isn't there to edit until the row has loaded
+        TodoRow row = mAdapter.getLoadedRow(position);
+        if (row != null) {
+            onEditTodo(row);
         }
     }
 
@@ -303,31 +1087,4 @@ public class TodoListActivity extends AppCompatActivity
         title.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.empty_task_text_color)), 0, length, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         return title;
     }
-
-    /** Simperium Bucket Listeners. All listener callbacks are from a separate thread.
-     * See refreshTodos()
-     */
-    // Called after an object is saved
-    @Override
-    public void onSaveObject(Bucket<Todo> todos, Todo todo) {
-        refreshTodos(todos);
-    }
-
-    // Called after an object is deleted
-    @Override
-    public void onDeleteObject(Bucket<Todo> todos, Todo todo) {
-        refreshTodos(todos);
-    }
-
-    // Called before a network change is about to be made to an object
-    @Override
-    public void onBeforeUpdateObject(Bucket<Todo> bucket, Todo todo) {
-        // noop
-    }
-
-    // Called after a network change has been applied to an object
-    @Override
-    public void onNetworkChange(Bucket<Todo> todos, Bucket.ChangeType changeType, String simperiumKey) {
-        refreshTodos(todos);
-    }
-}
\ No newline at end of file
+}
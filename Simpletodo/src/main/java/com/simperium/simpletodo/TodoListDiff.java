@@ -0,0 +1,223 @@
+package com.simperium.simpletodo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the set of removes, moves, inserts and changes that turn one list snapshot into the next,
+ * matching rows by Simperium key. Rows that keep their relative order (the longest increasing run of
+ * surviving rows) stay put, so a single edit or reorder produces a single operation.
+ *
+ * The whole diff is O(n log n) however many rows move: every move's positions are counted in a
+ * Fenwick tree over the slots the rows pass through, instead of searched for in a list.
+ *
+ * Operations are meant to be applied in the order they are dispatched, the same way RecyclerView
+ * expects its notifyItem* calls.
+ */
+public class TodoListDiff {
+
+    public interface Callback {
+        void onRemoved(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onInserted(int position);
+
+        void onChanged(int position);
+    }
+
+    private static final int OP_REMOVE = 0;
+    private static final int OP_MOVE = 1;
+    private static final int OP_INSERT = 2;
+    private static final int OP_CHANGE = 3;
+
+    // Operations are packed as (type, first position, second position) triplets
+    private int[] mOps = new int[24];
+    private int mOpCount;
+
+    private TodoListDiff() {
+    }
+
+    public static TodoListDiff calculate(List<TodoEntry> oldRows, List<TodoEntry> newRows) {
+        TodoListDiff diff = new TodoListDiff();
+
+        Map<String, Integer> newPositions = new HashMap<>(newRows.size() * 2);
+        for (int i = 0; i < newRows.size(); i++) {
+            newPositions.put(newRows.get(i).key, i);
+        }
+        Map<String, TodoEntry> oldByKey = new HashMap<>(oldRows.size() * 2);
+        for (TodoEntry row : oldRows) {
+            oldByKey.put(row.key, row);
+        }
+
+        // Remove rows that are gone, from the end so earlier positions stay valid
+        int[] survivorTargets = new int[oldRows.size()];
+        int survivors = 0;
+        for (int i = oldRows.size() - 1; i >= 0; i--) {
+            if (!newPositions.containsKey(oldRows.get(i).key)) {
+                diff.add(OP_REMOVE, i, 0);
+            }
+        }
+        // The survivor at each new position, -1 for inserted rows
+        int[] survivorAt = new int[newRows.size()];
+        Arrays.fill(survivorAt, -1);
+        for (TodoEntry row : oldRows) {
+            Integer target = newPositions.get(row.key);
+            if (target != null) {
+                survivorAt[target] = survivors;
+                survivorTargets[survivors++] = target;
+            }
+        }
+
+        // Survivors on the longest increasing run of target positions keep their place
+        boolean[] stable = longestIncreasingRun(survivorTargets, survivors);
+        diff.addMoves(survivorAt, stable, survivors);
+
+        // Inserting in ascending order means every earlier position is already final
+        for (int i = 0; i < newRows.size(); i++) {
+            if (!oldByKey.containsKey(newRows.get(i).key)) {
+                diff.add(OP_INSERT, i, 0);
+            }
+        }
+
+        for (int i = 0; i < newRows.size(); i++) {
+            TodoEntry newRow = newRows.get(i);
+            TodoEntry oldRow = oldByKey.get(newRow.key);
+            if (oldRow != null && !oldRow.hasSameContent(newRow)) {
+                diff.add(OP_CHANGE, i, 0);
+            }
+        }
+
+        return diff;
+    }
+
+    public int getOperationCount() {
+        return mOpCount;
+    }
+
+    public void dispatchTo(Callback callback) {
+        for (int i = 0; i < mOpCount * 3; i += 3) {
+            switch (mOps[i]) {
+                case OP_REMOVE:
+                    callback.onRemoved(mOps[i + 1]);
+                    break;
+                case OP_MOVE:
+                    callback.onMoved(mOps[i + 1], mOps[i + 2]);
+                    break;
+                case OP_INSERT:
+                    callback.onInserted(mOps[i + 1]);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(mOps[i + 1]);
+                    break;
+            }
+        }
+    }
+
+    // Places each moving survivor right after the survivor that precedes it in the new list, in new
+    // list order, so the survivors end up in the new list's order. A row placed that way always lands
+    // right after the last stable survivor before it in the new list, behind the rows placed there
+    // before it. Every slot a survivor can be in is therefore known up front: its old slot, and for
+    // a moving one the slot after that stable survivor. Positions are counts of the occupied slots
+    // in front of a slot.
+    private void addMoves(int[] survivorAt, boolean[] stable, int survivors) {
+        // The stable survivor each moving one is placed after, -1 for the front of the list
+        int[] anchor = new int[survivors];
+        int[] placedAfter = new int[survivors + 1];
+        int lastStable = -1;
+        for (int survivor : survivorAt) {
+            if (survivor < 0) continue;
+
+            if (stable[survivor]) {
+                lastStable = survivor;
+            } else {
+                anchor[survivor] = lastStable;
+                placedAfter[lastStable + 1]++;
+            }
+        }
+
+        // Slots in list order: the rows placed at the front, then each survivor's old slot followed by
+        // the slots of the rows placed after it
+        int[] oldSlot = new int[survivors];
+        int[] nextPlacedSlot = new int[survivors + 1];
+        int slots = placedAfter[0];
+        for (int i = 0; i < survivors; i++) {
+            oldSlot[i] = slots++;
+            nextPlacedSlot[i + 1] = slots;
+            slots += placedAfter[i + 1];
+        }
+
+        int[] occupied = new int[slots + 1];
+        for (int i = 0; i < survivors; i++) {
+            fenwickAdd(occupied, oldSlot[i], 1);
+        }
+        for (int survivor : survivorAt) {
+            if (survivor < 0 || stable[survivor]) continue;
+
+            int from = fenwickCount(occupied, oldSlot[survivor]);
+            fenwickAdd(occupied, oldSlot[survivor], -1);
+            int slot = nextPlacedSlot[anchor[survivor] + 1]++;
+            int to = fenwickCount(occupied, slot);
+            fenwickAdd(occupied, slot, 1);
+            if (from != to) add(OP_MOVE, from, to);
+        }
+    }
+
+    // The tree is 1-based, slot i is kept at i + 1
+    private static void fenwickAdd(int[] tree, int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // The number of occupied slots before the slot
+    private static int fenwickCount(int[] tree, int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    private void add(int type, int first, int second) {
+        int index = mOpCount * 3;
+        if (index + 3 > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[index] = type;
+        mOps[index + 1] = first;
+        mOps[index + 2] = second;
+        mOpCount++;
+    }
+
+    // Marks the elements of the longest strictly increasing subsequence, O(n log n)
+    static boolean[] longestIncreasingRun(int[] values, int length) {
+        int[] tails = new int[length];
+        int[] previous = new int[length];
+        int runLength = 0;
+
+        for (int i = 0; i < length; i++) {
+            int low = 0;
+            int high = runLength;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == runLength) runLength++;
+        }
+
+        boolean[] inRun = new boolean[length];
+        for (int i = runLength > 0 ? tails[runLength - 1] : -1; i >= 0; i = previous[i]) {
+            inRun[i] = true;
+        }
+        return inRun;
+    }
+}
@@ -0,0 +1,119 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Diffs each To-do list the activity is about to show against the one on screen on a dedicated
+ * background thread and hands the result back to the UI thread. Every load gets a generation number,
+ * a load that has been superseded by a newer one is cancelled and its result is discarded instead of
+ * delivered.
+ *
+ * The lists are TodoRepository snapshot entries and are immutable. They are delivered together with
+ * the keyed diff from the previously delivered list, so the list only has to touch the rows that
+ * changed. Every list is diffed whatever its length. The diff is O(n log n) even when every row
+ * moves, about 50ms for a reversed list of 100k rows, see TodoQueryBenchmark.diffReversed. The
+ * adapter decides from the diff's operation count whether to apply it or rebind.
+ */
+public class TodoListLoader {
+
+    public interface OnTodosLoadedListener {
+        // Called on the UI thread. The diff is null when it no longer applies to the list on screen.
+        void onTodosLoaded(List<TodoEntry> rows, TodoListDiff diff);
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "todo-list-diff");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // The last list handed to the listener, the base for the next diff
+    private volatile List<TodoEntry> mDeliveredRows = Collections.emptyList();
+
+    private OnTodosLoadedListener mListener;
+    private Future<?> mPendingLoad;
+
+    public TodoListLoader(OnTodosLoadedListener listener) {
+        mListener = listener;
+    }
+
+    // Must be called on the UI thread. Supersedes any load that hasn't been delivered yet.
+    public void load(final List<TodoEntry> rows) {
+        final int generation = mGeneration.incrementAndGet();
+
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(false);
+        }
+
+        mPendingLoad = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (isStale(generation)) return;
+
+                final List<TodoEntry> baseRows = mDeliveredRows;
+                final TodoListDiff diff = TodoListDiff.calculate(baseRows, rows);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer load may have been requested while this one was in flight
+                        if (isStale(generation) || mListener == null) return;
+
+                        boolean diffApplies = baseRows == mDeliveredRows;
+                        mDeliveredRows = rows;
+                        mListener.onTodosLoaded(rows, diffApplies ? diff : null);
+                    }
+                });
+            }
+        });
+    }
+
+    // The list changed on screen without a load (a drag and drop), diff the next load against it.
+    // A load already in flight no longer matches and will be delivered without a diff.
+    public void onRowsChangedLocally(List<TodoEntry> rows) {
+        mDeliveredRows = rows;
+    }
+
+    // Discards any load in flight
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(false);
+            mPendingLoad = null;
+        }
+    }
+
+    // Stops the background thread, the loader can't be used afterwards
+    public void shutdown() {
+        cancel();
+        mListener = null;
+        mExecutor.shutdown();
+    }
+
+    private boolean isStale(int generation) {
+        return generation != mGeneration.get();
+    }
+}
@@ -0,0 +1,108 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+import com.simperium.client.BucketObjectNameInvalid;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Debug tool that replays a TodoChangeTrace into the todo bucket as fast as the bucket takes it, to
+ * reproduce sync storms without a Simperium account. Changes are applied as local saves and deletes,
+ * so listeners hear onSaveObject() and onDeleteObject() rather than the onNetworkChange() a sync
+ * makes, and Todo.Schema.update() isn't run. The TodoRepository handles all of these the same way:
+ * update the indexes and request a snapshot.
+ *
+ * Only runs in offline builds (see TodoApplication). Anywhere else the replayed To-dos would be
+ * synced to the signed in account.
+ *
+ * The trace is read from files/replay.ndjson when present, so scripted traces can be pushed with
+ * adb, otherwise one is generated. When the replay is done the throughput is logged next to the
+ * refresh and UI thread numbers in TodoMetrics.
+ */
+public class TodoLoadGenerator {
+
+    public static final String TRACE_FILE = "replay.ndjson";
+
+    public static final int GENERATED_INITIAL = 1000;
+    public static final int GENERATED_CHANGES = 5000;
+
+    private static final AtomicBoolean sRunning = new AtomicBoolean();
+
+    public static void replay(final Context context, final Bucket<Todo> bucket) {
+        if (!BuildConfig.SIMPERIUM_OFFLINE) {
+            TodoLog.w("Load replay needs an offline build, not replaying into a synced bucket");
+            return;
+        }
+        if (!sRunning.compareAndSet(false, true)) return;
+
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TodoChangeTrace trace = loadTrace(new File(context.getFilesDir(), TRACE_FILE));
+                    TodoMetrics.reset();
+
+                    long start = SystemClock.elapsedRealtime();
+                    for (TodoChangeTrace.Change change : trace.getChanges()) {
+                        apply(bucket, change);
+                    }
+                    long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+                    if (TodoLog.isLoggable(TodoLog.INFO)) {
+                        TodoLog.i("Replayed " + trace.size() + " changes in " + elapsed + "ms, "
+                                + (trace.size() * 1000L / elapsed) + " changes/s, "
+                                + TodoMetrics.sSnapshots.get() + " snapshots");
+                    }
+                } catch (IOException e) {
+                    TodoLog.w("Could not load the replay trace", e);
+                } finally {
+                    sRunning.set(false);
+                }
+            }
+        });
+    }
+
+    private static TodoChangeTrace loadTrace(File file) throws IOException {
+        if (!file.exists()) {
+            return TodoChangeTrace.generate(SystemClock.elapsedRealtime(), GENERATED_INITIAL, GENERATED_CHANGES);
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            return TodoChangeTrace.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void apply(Bucket<Todo> bucket, TodoChangeTrace.Change change) {
+        try {
+            if (change.op.equals(TodoChangeTrace.DELETE)) {
+                bucket.get(change.key).delete();
+                return;
+            }
+
+            Todo todo = change.op.equals(TodoChangeTrace.CREATE)
+                    ? bucket.newObject(change.key) : bucket.get(change.key);
+            // Traces can be replayed more than once, the bucket must not share their objects
+            todo.setProperties(new JSONObject(change.value.toString()));
+            todo.save();
+        } catch (BucketObjectMissingException | BucketObjectNameInvalid | JSONException e) {
+            TodoLog.w("Skipped " + change.op + " of " + change.key, e);
+        }
+    }
+
+    private TodoLoadGenerator() {
+    }
+}
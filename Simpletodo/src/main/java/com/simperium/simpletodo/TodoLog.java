@@ -0,0 +1,175 @@
+package com.simperium.simpletodo;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The app's logging and tracing. Every call is gated on the current level before a message is
+ * built: the single argument overloads only call toString() on the argument when the level is
+ * enabled, and messages built from several values should be guarded with isLoggable(). Release
+ * builds log warnings and errors only.
+ *
+ * Enabled messages go to logcat and to an in-memory ring buffer of the last BUFFER_SIZE entries
+ * that writers fill without locking. dump() prints the buffer, for example from
+ * "adb shell dumpsys activity com.simperium.simpletodo".
+ *
+ * Tracing is off by default. When on, beginTrace()/endTrace() mark a systrace section on API 18 and
+ * up and record how long the section took. Tracing and the level are switched at runtime through
+ * dumpsys, see setOption().
+ */
+public final class TodoLog {
+
+    private static final String TAG = "Simpletodo";
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+    public static final int WARN = Log.WARN;
+    public static final int ERROR = Log.ERROR;
+
+    // Must be a power of two
+    public static final int BUFFER_SIZE = 1024;
+
+    private static volatile int sLevel = BuildConfig.DEBUG ? DEBUG : WARN;
+    private static volatile boolean sTracing;
+
+    private static final AtomicReferenceArray<String> sBuffer = new AtomicReferenceArray<>(BUFFER_SIZE);
+    private static final AtomicLong sNextEntry = new AtomicLong();
+
+    private TodoLog() {
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= sLevel;
+    }
+
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    public static void setTracing(boolean tracing) {
+        sTracing = tracing;
+    }
+
+    // Arguments after the package name of "adb shell dumpsys activity com.simperium.simpletodo":
+    // "trace on|off" or "level verbose|debug|info|warn|error". Returns false for anything else.
+    public static boolean setOption(String option, String value) {
+        if ("trace".equals(option) && ("on".equals(value) || "off".equals(value))) {
+            setTracing("on".equals(value));
+            return true;
+        }
+        if ("level".equals(option)) {
+            int level = parseLevel(value);
+            if (level < 0) return false;
+
+            setLevel(level);
+            return true;
+        }
+        return false;
+    }
+
+    // The level and tracing state, for dump()
+    public static String describe() {
+        return "level " + levelName(sLevel) + ", tracing " + (sTracing ? "on" : "off");
+    }
+
+    public static void d(String message) {
+        if (isLoggable(DEBUG)) write(DEBUG, message);
+    }
+
+    public static void d(String message, Object arg) {
+        if (isLoggable(DEBUG)) write(DEBUG, message + arg);
+    }
+
+    public static void i(String message) {
+        if (isLoggable(INFO)) write(INFO, message);
+    }
+
+    public static void i(String message, Object arg) {
+        if (isLoggable(INFO)) write(INFO, message + arg);
+    }
+
+    public static void w(String message) {
+        if (isLoggable(WARN)) write(WARN, message);
+    }
+
+    public static void w(String message, Throwable error) {
+        if (isLoggable(WARN)) write(WARN, message + '\n' + Log.getStackTraceString(error));
+    }
+
+    // Returns the token to pass to endTrace(), 0 when tracing is off
+    public static long beginTrace(String section) {
+        if (!sTracing) return 0;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(section);
+        }
+        return System.nanoTime();
+    }
+
+    // Must be called on the thread that began the section
+    public static void endTrace(String section, long token) {
+        if (token == 0) return;
+
+        long micros = (System.nanoTime() - token) / 1000;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        if (isLoggable(VERBOSE)) {
+            write(VERBOSE, section + " took " + micros + "us");
+        } else {
+            record(VERBOSE, section + " took " + micros + "us");
+        }
+    }
+
+    // Prints the buffered entries, oldest first
+    public static void dump(PrintWriter writer) {
+        long end = sNextEntry.get();
+        long start = Math.max(0, end - BUFFER_SIZE);
+        for (long i = start; i < end; i++) {
+            String entry = sBuffer.get((int) (i & (BUFFER_SIZE - 1)));
+            if (entry != null) {
+                writer.println(entry);
+            }
+        }
+    }
+
+    private static void write(int level, String message) {
+        Log.println(level, TAG, message);
+        record(level, message);
+    }
+
+    // Claims the next slot, a writer that laps a slower one simply overwrites the older entry
+    private static void record(int level, String message) {
+        long index = sNextEntry.getAndIncrement();
+        sBuffer.set((int) (index & (BUFFER_SIZE - 1)),
+                SystemClock.elapsedRealtime() + " " + levelName(level) + " "
+                        + Thread.currentThread().getName() + ": " + message);
+    }
+
+    // -1 for an unknown name
+    private static int parseLevel(String name) {
+        if ("verbose".equals(name)) return VERBOSE;
+        if ("debug".equals(name)) return DEBUG;
+        if ("info".equals(name)) return INFO;
+        if ("warn".equals(name)) return WARN;
+        if ("error".equals(name)) return ERROR;
+        return -1;
+    }
+
+    private static char levelName(int level) {
+        switch (level) {
+            case VERBOSE: return 'V';
+            case DEBUG: return 'D';
+            case INFO: return 'I';
+            case WARN: return 'W';
+            default: return 'E';
+        }
+    }
+}
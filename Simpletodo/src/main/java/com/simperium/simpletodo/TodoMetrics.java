@@ -0,0 +1,81 @@
+package com.simperium.simpletodo;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters and latency histograms for the sync callbacks, snapshots, binding and
+ * search. They are plain static fields so recording is an atomic increment with no lookup or
+ * allocation, and they are always on.
+ *
+ * dump() prints every metric with p50, p90, p99 and max, the debug menu and dumpsys both show it.
+ */
+public final class TodoMetrics {
+
+    // Bucket.Listener callbacks
+    public static final AtomicLong sSaveCallbacks = new AtomicLong();
+    public static final AtomicLong sDeleteCallbacks = new AtomicLong();
+    public static final AtomicLong sNetworkChangeCallbacks = new AtomicLong();
+
+    // Snapshots requested by callbacks, the snapshots they were batched into and the deliveries a
+    // subscriber skipped because a newer snapshot replaced them, see TodoRepository
+    public static final AtomicLong sRefreshRequests = new AtomicLong();
+    public static final AtomicLong sSnapshots = new AtomicLong();
+    public static final AtomicLong sSnapshotsSkipped = new AtomicLong();
+
+    // Decoded To-do cache, see TodoCache
+    public static final AtomicLong sCacheHits = new AtomicLong();
+    public static final AtomicLong sCacheMisses = new AtomicLong();
+    public static final AtomicLong sCacheEvictions = new AtomicLong();
+
+    public static final LatencyHistogram sSnapshotBuild = new LatencyHistogram("snapshot build");
+    // UI thread time spent applying each delivered list
+    public static final LatencyHistogram sListApply = new LatencyHistogram("list apply");
+    public static final LatencyHistogram sCompletedQuery = new LatencyHistogram("completed query");
+    public static final LatencyHistogram sBind = new LatencyHistogram("row bind");
+    public static final LatencyHistogram sSave = new LatencyHistogram("todo save");
+    public static final LatencyHistogram sSearch = new LatencyHistogram("title search");
+
+    private static final LatencyHistogram[] HISTOGRAMS = { sSnapshotBuild, sListApply, sCompletedQuery, sBind, sSave, sSearch };
+
+    private TodoMetrics() {
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("Callbacks: save " + sSaveCallbacks.get() + ", delete " + sDeleteCallbacks.get()
+                + ", network change " + sNetworkChangeCallbacks.get());
+        writer.println("Refreshes: requested " + sRefreshRequests.get() + ", snapshots " + sSnapshots.get()
+                + ", skipped deliveries " + sSnapshotsSkipped.get());
+        writer.println("Todo cache: hits " + sCacheHits.get() + ", misses " + sCacheMisses.get()
+                + ", evictions " + sCacheEvictions.get());
+
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            writer.println(histogram.getName() + ": count " + histogram.getCount()
+                    + ", p50 " + formatNanos(histogram.getPercentile(50))
+                    + ", p90 " + formatNanos(histogram.getPercentile(90))
+                    + ", p99 " + formatNanos(histogram.getPercentile(99))
+                    + ", max " + formatNanos(histogram.getMax()));
+        }
+    }
+
+    public static void reset() {
+        sSaveCallbacks.set(0);
+        sDeleteCallbacks.set(0);
+        sNetworkChangeCallbacks.set(0);
+        sRefreshRequests.set(0);
+        sSnapshots.set(0);
+        sSnapshotsSkipped.set(0);
+        sCacheHits.set(0);
+        sCacheMisses.set(0);
+        sCacheEvictions.set(0);
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10000) return nanos + "ns";
+        if (nanos < 10000000) return (nanos / 1000) + "us";
+        return (nanos / 1000000) + "ms";
+    }
+}
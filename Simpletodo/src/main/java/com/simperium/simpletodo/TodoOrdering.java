@@ -0,0 +1,131 @@
+package com.simperium.simpletodo;
+
+/**
+ * Sparse fractional ranks for the To-do order property. New To-dos are appended STEP after the
+ * last one and a moved To-do takes the midpoint of its new neighbours, so a reorder rewrites exactly
+ * one object. Ranks only have to be spread out again (see TodoRebalancer) once repeated moves into
+ * the same gap have used up the precision of a double, and then only around that gap: spread()
+ * rewrites the smallest window whose neighbours leave enough room, so the writes a rebalance costs
+ * don't grow with the list.
+ */
+public final class TodoOrdering {
+
+    public static final double STEP = 1024;
+
+    // Below this gap a midpoint still works but the next few moves into it would not
+    public static final double MIN_GAP = 1e-6;
+
+    // A spread window must leave this much gap per To-do it holds, so a larger window leaves larger
+    // gaps. Moves that keep landing in one spot then push the window out to ever wider gaps rather
+    // than rewriting a crowd that grows with every rebalance.
+    public static final double SPREAD_GAP_PER_TODO = MIN_GAP * 1024;
+
+    private TodoOrdering() {
+    }
+
+    // Rank for a To-do appended after the given last rank, or the first To-do of an empty list
+    public static double after(double last) {
+        return last + STEP;
+    }
+
+    public static double first() {
+        return STEP;
+    }
+
+    // Rank for a To-do placed before the given first rank
+    public static double before(double first) {
+        return first - STEP;
+    }
+
+    // Rank for a To-do moved between two neighbours, NaN when the gap is exhausted
+    public static double between(double previous, double next) {
+        double rank = previous + (next - previous) / 2;
+        if (rank <= previous || rank >= next) {
+            return Double.NaN;
+        }
+        return rank;
+    }
+
+    // Rank for a To-do dropped between two neighbours, NaN stands in for the missing neighbour at
+    // either end of the list. In an exhausted gap this is the previous rank, the To-do then ties with
+    // its neighbour until the gap is spread out, see needsRebalance().
+    public static double forDrop(double previous, double next, double current) {
+        if (Double.isNaN(previous) && Double.isNaN(next)) return current;
+        if (Double.isNaN(previous)) return before(next);
+        if (Double.isNaN(next)) return after(previous);
+
+        double rank = between(previous, next);
+        return Double.isNaN(rank) ? previous : rank;
+    }
+
+    // True when ranks in this gap are close to running out and a rebalance should be scheduled
+    public static boolean needsRebalance(double previous, double next) {
+        return next - previous < MIN_GAP;
+    }
+
+    // Evenly spread rank for the To-do at the position, used by the rebalancer
+    public static double atPosition(int position) {
+        return (position + 1) * STEP;
+    }
+
+    // Spreads the ranks, in list order, back out wherever neighbours are closer than MIN_GAP or out of
+    // order. Each such spot grows into the smallest window, doubling in size, whose neighbours leave
+    // room for it, or that reaches an end of the list where ranks are unbounded.
+    // Only ranks in those windows change. Updates the array and returns how many ranks changed.
+    public static int spread(double[] ranks) {
+        int changed = 0;
+        int last = ranks.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (ranks[i + 1] - ranks[i] >= MIN_GAP) continue;
+
+            int start = i;
+            int end = i + 1;
+            while (!fits(ranks, start, end)) {
+                int grow = (end - start + 1) / 2;
+                start = Math.max(0, start - grow);
+                end = Math.min(last, end + grow);
+            }
+            changed += fill(ranks, start, end);
+            // The window ends in a wide enough gap, carry on from there
+            i = end - 1;
+        }
+        return changed;
+    }
+
+    private static boolean fits(double[] ranks, int start, int end) {
+        if (start == 0 || end == ranks.length - 1) return true;
+
+        int count = end - start + 1;
+        return (ranks[end + 1] - ranks[start - 1]) / (count + 1) >= SPREAD_GAP_PER_TODO * count;
+    }
+
+    // Evenly spaces the window between its neighbours, STEP apart against an end of the list
+    private static int fill(double[] ranks, int start, int end) {
+        int count = end - start + 1;
+        double first;
+        double gap;
+        if (start == 0 && end == ranks.length - 1) {
+            first = atPosition(0);
+            gap = STEP;
+        } else if (start == 0) {
+            first = ranks[end + 1] - count * STEP;
+            gap = STEP;
+        } else if (end == ranks.length - 1) {
+            first = ranks[start - 1] + STEP;
+            gap = STEP;
+        } else {
+            gap = (ranks[end + 1] - ranks[start - 1]) / (count + 1);
+            first = ranks[start - 1] + gap;
+        }
+
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            double rank = first + i * gap;
+            if (ranks[start + i] != rank) {
+                ranks[start + i] = rank;
+                changed++;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,87 @@
+package com.simperium.simpletodo;
+
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads crowded order ranks back out, see TodoOrdering.spread(). Only scheduled when a move finds
+ * its gap exhausted, and only To-dos whose rank actually changes are saved.
+ *
+ * A rebalance requested while one is running is not dropped: the running pass takes the latest
+ * requested list once it is done, so every drop is eventually spread out.
+ */
+public class TodoRebalancer {
+
+    private static final class Request {
+        final List<String> keys;
+        final double[] ranks;
+
+        Request(List<String> keys, double[] ranks) {
+            this.keys = keys;
+            this.ranks = ranks;
+        }
+    }
+
+    private static final AtomicBoolean sRunning = new AtomicBoolean();
+    private static final AtomicReference<Request> sPending = new AtomicReference<>();
+
+    // Keys and their ranks are in display order. A newer request replaces one that is still waiting,
+    // it holds the same To-dos in a more recent order.
+    public static void rebalance(final Bucket<Todo> bucket, List<String> keys, double[] ranks) {
+        sPending.set(new Request(keys, ranks));
+        if (!sRunning.compareAndSet(false, true)) return;
+
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                drain(bucket);
+            }
+        });
+    }
+
+    // Checks for a request that came in while the pass was finishing, after clearing the running flag
+    private static void drain(Bucket<Todo> bucket) {
+        do {
+            try {
+                Request request;
+                while ((request = sPending.getAndSet(null)) != null) {
+                    spread(bucket, request);
+                }
+            } finally {
+                sRunning.set(false);
+            }
+        } while (sPending.get() != null && sRunning.compareAndSet(false, true));
+    }
+
+    private static void spread(Bucket<Todo> bucket, Request request) {
+        double[] ranks = request.ranks.clone();
+        TodoOrdering.spread(ranks);
+
+        int saved = 0;
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] == request.ranks[i]) continue;
+
+            try {
+                Todo todo = bucket.get(request.keys.get(i));
+                if (todo.getOrder() != ranks[i]) {
+                    todo.setOrder(ranks[i]);
+                    todo.save();
+                    saved++;
+                }
+            } catch (BucketObjectMissingException e) {
+                // deleted since the list was drawn
+            }
+        }
+        if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+            TodoLog.d("Rebalanced order, saved " + saved + " of " + ranks.length + " todos");
+        }
+    }
+
+    private TodoRebalancer() {
+    }
+}
@@ -0,0 +1,293 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.simperium.client.Bucket;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The To-do data for the whole process, between the bucket and everything that shows To-dos. The
+ * repository is the TodoSyncOwner's only listener, so each callback is handled once no matter how
+ * many screens or widgets are subscribed: it moves the To-do it names in the TodoFilterIndex and
+ * TodoSearch and asks for a snapshot. Requests are coalesced over the refresh window, and one
+ * immutable TodoSnapshot is built per batch on the repository's background thread from the index,
+ * without querying the bucket.
+ *
+ * Subscribers are handed snapshots on their own Handler, and only ever the latest one: a subscriber
+ * that hasn't taken the previous snapshot yet when the next one is published gets the newer one
+ * instead, so a slow subscriber never queues up work and never holds back the others. A new
+ * subscriber gets the latest snapshot right away.
+ *
+ * The repository listens for as long as the process lives, but the bucket is only read to seed the
+ * index once something subscribes, and the sync owner is only held while something is. Observers
+ * such as the widget get the same snapshots without keeping the bucket syncing.
+ *
+ * subscribe(), observe() and unsubscribe() must be called on the main thread.
+ */
+public class TodoRepository implements Bucket.Listener<Todo>, TodoFilterIndex.OnReconciledListener,
+        TodoSearch.OnIndexBuiltListener, RefreshScheduler.OnRefreshListener {
+
+    public interface OnSnapshotListener {
+        // Called on the Handler the listener subscribed with
+        void onTodoSnapshot(TodoSnapshot snapshot);
+    }
+
+    // Hands one subscriber the latest snapshot it hasn't taken yet
+    private static final class Subscription implements Runnable {
+
+        final OnSnapshotListener listener;
+        final Handler handler;
+        // Keeps the bucket syncing, observers don't
+        final boolean holdsSync;
+        final AtomicReference<TodoSnapshot> pending = new AtomicReference<>();
+        volatile boolean cancelled;
+
+        Subscription(OnSnapshotListener listener, Handler handler, boolean holdsSync) {
+            this.listener = listener;
+            this.handler = handler;
+            this.holdsSync = holdsSync;
+        }
+
+        // Repository thread only. Posts a delivery unless one is waiting, which then takes this
+        // snapshot instead of the one it was posted for.
+        void offer(TodoSnapshot snapshot) {
+            if (pending.getAndSet(snapshot) == null) {
+                handler.post(this);
+            } else {
+                TodoMetrics.sSnapshotsSkipped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            TodoSnapshot snapshot = pending.getAndSet(null);
+            if (snapshot != null && !cancelled) {
+                listener.onTodoSnapshot(snapshot);
+            }
+        }
+    }
+
+    private final Bucket<Todo> mBucket;
+    private final TodoSyncOwner mSyncOwner;
+    private final TodoFilterIndex mFilterIndex;
+    private final TodoSearch mSearch;
+    private final Handler mHandler;
+    private final RefreshScheduler mScheduler;
+    private final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+    // Written on the repository thread
+    private volatile TodoSnapshot mLatest;
+    // Read by the listener callbacks, see suspendIndexing()
+    private final AtomicInteger mIndexingHolds = new AtomicInteger();
+    // Main thread only
+    private int mSyncHolders;
+    private boolean mSeedStarted;
+
+    public TodoRepository(Bucket<Todo> bucket, TodoSyncOwner syncOwner, TodoCache cache, long windowMs) {
+        mBucket = bucket;
+        mSyncOwner = syncOwner;
+        mFilterIndex = new TodoFilterIndex(this, cache);
+        mSearch = new TodoSearch(this, cache);
+
+        HandlerThread thread = new HandlerThread("todo-repository", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mScheduler = new RefreshScheduler(mHandler, windowMs, this);
+        mSyncOwner.addListener(this);
+    }
+
+    // The listener is handed the latest snapshot, if there is one yet, and every later one on the
+    // handler. The bucket keeps syncing until it unsubscribes.
+    public void subscribe(OnSnapshotListener listener, Handler handler) {
+        add(listener, handler, true);
+    }
+
+    // Like subscribe() but the bucket is neither read nor started for the listener, it only gets the
+    // snapshots published for subscribers and for local changes
+    public void observe(OnSnapshotListener listener, Handler handler) {
+        add(listener, handler, false);
+    }
+
+    private void add(OnSnapshotListener listener, Handler handler, boolean holdsSync) {
+        if (find(listener) != null) return;
+
+        final Subscription subscription = new Subscription(listener, handler, holdsSync);
+        mSubscriptions.add(subscription);
+        // Offered on the repository thread so it can't overtake a newer snapshot being published
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                TodoSnapshot latest = mLatest;
+                if (latest != null && !subscription.cancelled) {
+                    subscription.offer(latest);
+                }
+            }
+        });
+
+        if (holdsSync && mSyncHolders++ == 0) {
+            mSyncOwner.acquire(this);
+            // From then on the callbacks keep the index up to date
+            if (!mSeedStarted) {
+                mSeedStarted = true;
+                mFilterIndex.seed(mBucket);
+            }
+        }
+    }
+
+    // A snapshot already posted to the listener is dropped
+    public void unsubscribe(OnSnapshotListener listener) {
+        Subscription subscription = find(listener);
+        if (subscription == null) return;
+
+        subscription.cancelled = true;
+        subscription.handler.removeCallbacks(subscription);
+        mSubscriptions.remove(subscription);
+
+        if (subscription.holdsSync && --mSyncHolders == 0) {
+            mSyncOwner.release(this);
+        }
+    }
+
+    // Holds back snapshots during bulk changes, every change until the matching resume() is published
+    // in one snapshot. The filter index checks itself against the bucket once, at the end.
+    public void suspend() {
+        mScheduler.suspend();
+        mFilterIndex.holdReconcile();
+    }
+
+    public void resume() {
+        mFilterIndex.releaseReconcile(mBucket);
+        mScheduler.resume();
+    }
+
+    // Like suspend(), for changes too many to move through the indexes one by one such as an import.
+    // The callbacks only count towards the next snapshot until the matching resumeIndexing(), which
+    // reads the filter index, and the search index if it is in use, again from the bucket once.
+    // Must be called on the main thread.
+    public void suspendIndexing() {
+        suspend();
+        mIndexingHolds.incrementAndGet();
+    }
+
+    public void resumeIndexing() {
+        if (mIndexingHolds.decrementAndGet() == 0) {
+            // Both run on the bucket's executor after the changes and publish a snapshot when done.
+            // The filter index counts as not seeded until then, so no snapshot of it as it was before
+            // the changes goes out stamped with the sequence after them.
+            if (mSeedStarted) {
+                mFilterIndex.seed(mBucket);
+            }
+            mSearch.rebuild(mBucket);
+        }
+        resume();
+    }
+
+    // Builds the title search index in the background the first time, a snapshot is published once
+    // it is ready so subscribers can search again
+    public void buildSearch() {
+        mSearch.build(mBucket);
+    }
+
+    // The To-dos whose title matches the query in list order, none until the search index is built
+    public List<TodoRow> search(String query) {
+        return mSearch.search(query);
+    }
+
+    private Subscription find(OnSnapshotListener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.listener == listener) return subscription;
+        }
+        return null;
+    }
+
+    private boolean isIndexingSuspended() {
+        return mIndexingHolds.get() > 0;
+    }
+
+    private void requestSnapshot() {
+        TodoMetrics.sRefreshRequests.incrementAndGet();
+        mScheduler.requestRefresh();
+    }
+
+    // Repository thread, once per batch of requests
+    @Override
+    public void onRefresh(int mergedRequests) {
+        long start = System.nanoTime();
+        // Read before the index so the snapshot holds every change the sequence counts, except one
+        // whose callback is still running and will request the next snapshot
+        TodoSnapshot snapshot = mFilterIndex.snapshot(mSyncOwner.getSequence());
+        // Nothing to show while seeding, the seed requests a snapshot once it is done
+        if (snapshot == null) return;
+        TodoMetrics.sSnapshotBuild.recordSince(start);
+        TodoMetrics.sSnapshots.incrementAndGet();
+
+        mLatest = snapshot;
+        for (Subscription subscription : mSubscriptions) {
+            subscription.offer(snapshot);
+        }
+
+        if (mergedRequests > 1 && TodoLog.isLoggable(TodoLog.DEBUG)) {
+            TodoLog.d("Coalesced " + mergedRequests + " bucket changes into one snapshot");
+        }
+    }
+
+    @Override
+    public void onFilterIndexReconciled() {
+        requestSnapshot();
+    }
+
+    @Override
+    public void onSearchIndexBuilt(int size) {
+        requestSnapshot();
+    }
+
+    /** Simperium Bucket Listeners, forwarded by the sync owner. All listener callbacks are from a
+     * separate thread. See onRefresh()
+     */
+    @Override
+    public void onSaveObject(Bucket<Todo> bucket, Todo todo) {
+        TodoMetrics.sSaveCallbacks.incrementAndGet();
+        if (isIndexingSuspended()) {
+            requestSnapshot();
+            return;
+        }
+        mFilterIndex.onSaveObject(bucket, todo);
+        mSearch.onSaveObject(bucket, todo);
+        requestSnapshot();
+    }
+
+    @Override
+    public void onDeleteObject(Bucket<Todo> bucket, Todo todo) {
+        TodoMetrics.sDeleteCallbacks.incrementAndGet();
+        if (isIndexingSuspended()) {
+            requestSnapshot();
+            return;
+        }
+        mFilterIndex.onDeleteObject(bucket, todo);
+        mSearch.onDeleteObject(bucket, todo);
+        requestSnapshot();
+    }
+
+    @Override
+    public void onBeforeUpdateObject(Bucket<Todo> bucket, Todo todo) {
+        // noop
+    }
+
+    @Override
+    public void onNetworkChange(Bucket<Todo> bucket, Bucket.ChangeType changeType, String key) {
+        TodoMetrics.sNetworkChangeCallbacks.incrementAndGet();
+        if (isIndexingSuspended()) {
+            requestSnapshot();
+            return;
+        }
+        mFilterIndex.onNetworkChange(bucket, changeType, key);
+        mSearch.onNetworkChange(bucket, changeType, key);
+        requestSnapshot();
+    }
+}
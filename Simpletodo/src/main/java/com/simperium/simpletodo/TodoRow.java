@@ -0,0 +1,30 @@
+package com.simperium.simpletodo;
+
+/**
+ * An immutable copy of the To-do fields the list displays. Rows are built off the main thread so
+ * binding never has to decode a Todo, for the rows on screen (see TodoRowWindows) and for search
+ * results. The whole list is only kept as TodoEntries, which carry the hash of the title a row was
+ * read with. See Todo.toRow().
+ */
+public final class TodoRow {
+
+    public final String key;
+    public final String title;
+    public final boolean done;
+    public final double order;
+    // See TodoEntry.hashTitle()
+    public final long titleHash;
+
+    public TodoRow(String key, String title, boolean done, double order) {
+        this.key = key;
+        this.title = title;
+        this.done = done;
+        this.order = order;
+        this.titleHash = TodoEntry.hashTitle(title);
+    }
+
+    @Override
+    public String toString() {
+        return "TodoRow " + key + ": " + title + " [" + (done ? "✓" : " ") + "]";
+    }
+}
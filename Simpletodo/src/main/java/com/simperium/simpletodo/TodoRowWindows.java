@@ -0,0 +1,209 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The titles of the rows on screen. The list itself is only TodoEntries, rows are read by key
+ * WINDOW_SIZE positions at a time on a background thread, the window next to the one being displayed
+ * in the scroll direction is prefetched, and the least recently used rows are dropped past
+ * MAX_WINDOWS windows. Memory stays bounded no matter how many To-dos the bucket holds.
+ *
+ * get() must be called on the UI thread and returns null for rows that haven't been loaded yet, the
+ * listener is told when a window arrives so those rows can be bound again. A row whose title no longer
+ * matches its entry's hash is still returned and read again, lists from later snapshots are checked
+ * for those.
+ *
+ * Only plain Java collections are kept, the support library's LruCache and a BitSet, so the bind path
+ * runs as it does on a device in the JVM tests, see TodoBindAllocationTest.
+ */
+public class TodoRowWindows {
+
+    public static final int WINDOW_SIZE = 200;
+    public static final int MAX_WINDOWS = 8;
+
+    public interface OnWindowLoadedListener {
+        // Called on the UI thread with the positions that were read in the list passed to get()
+        void onWindowLoaded(List<TodoEntry> entries, int start, int count);
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "todo-row-windows");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler;
+    private final TodoCache mCache;
+
+    // UI thread only
+    private final LruCache<String, TodoRow> mRows = new LruCache<>(WINDOW_SIZE * MAX_WINDOWS);
+    private final Set<String> mLoading = new HashSet<>();
+    // The windows of mEntries that were checked since the list was handed over
+    private final BitSet mRequested = new BitSet();
+    private List<TodoEntry> mEntries;
+    private int mCurrentWindow;
+    private Bucket<Todo> mBucket;
+    private OnWindowLoadedListener mListener;
+
+    public TodoRowWindows(TodoCache cache, OnWindowLoadedListener listener) {
+        this(cache, listener, new Handler(Looper.getMainLooper()), Executors.newSingleThreadExecutor(THREAD_FACTORY));
+    }
+
+    // Tests pass a Handler they run by hand and an executor that reads right away
+    TodoRowWindows(TodoCache cache, OnWindowLoadedListener listener, Handler mainHandler, ExecutorService executor) {
+        mCache = cache;
+        mListener = listener;
+        mMainHandler = mainHandler;
+        mExecutor = executor;
+    }
+
+    // Nothing is read before the bucket is ready, rows put() from the stored snapshot are shown meanwhile
+    public void setBucket(Bucket<Todo> bucket) {
+        mBucket = bucket;
+        mRequested.clear();
+    }
+
+    // The row of the entry at the position, null while it is loading
+    public TodoRow get(List<TodoEntry> entries, int position) {
+        if (entries != mEntries) {
+            mEntries = entries;
+            mRequested.clear();
+        }
+
+        TodoEntry entry = entries.get(position);
+        TodoRow row = mRows.get(entry.key);
+
+        // Prefetch the next window in the direction the list is scrolling
+        int window = position / WINDOW_SIZE;
+        int direction = window >= mCurrentWindow ? 1 : -1;
+        mCurrentWindow = window;
+        // Evicted since the window was read. Out of date titles come with a new list.
+        if (row == null) {
+            mRequested.clear(window);
+        }
+        requestWindow(window);
+        requestWindow(window + direction);
+
+        return row;
+    }
+
+    // The loaded rows that still match the entries, from the first one up to the first missing one
+    public List<TodoRow> getLeadingRows(List<TodoEntry> entries, int max) {
+        int count = Math.min(max, entries.size());
+        List<TodoRow> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TodoEntry entry = entries.get(i);
+            TodoRow row = mRows.get(entry.key);
+            if (row == null || !entry.hasTitleOf(row)) break;
+
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // Rows already read elsewhere, the stored snapshot and search results
+    public void put(List<TodoRow> rows) {
+        int count = Math.min(rows.size(), WINDOW_SIZE);
+        for (int i = 0; i < count; i++) {
+            TodoRow row = rows.get(i);
+            mRows.put(row.key, row);
+        }
+    }
+
+    // For when the user signs out, the next user must not see these titles
+    public void clear() {
+        mRows.evictAll();
+        mRequested.clear();
+    }
+
+    // Stops the background thread, nothing is loaded afterwards
+    public void shutdown() {
+        mListener = null;
+        mExecutor.shutdown();
+    }
+
+    // Reads the rows of the window that are missing or out of date, once per window and list
+    private void requestWindow(final int window) {
+        final List<TodoEntry> entries = mEntries;
+        final Bucket<Todo> bucket = mBucket;
+        if (bucket == null || mListener == null || window < 0) return;
+
+        final int start = window * WINDOW_SIZE;
+        if (start >= entries.size() || mRequested.get(window)) return;
+
+        mRequested.set(window);
+        final int count = Math.min(WINDOW_SIZE, entries.size() - start);
+        final List<String> keys = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            TodoEntry entry = entries.get(i);
+            TodoRow row = mRows.get(entry.key);
+            if ((row == null || !entry.hasTitleOf(row)) && mLoading.add(entry.key)) {
+                keys.add(entry.key);
+            }
+        }
+        if (keys.isEmpty()) return;
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<TodoRow> rows = readRows(bucket, keys);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRowsRead(keys, rows, entries, start, count);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRowsRead(List<String> keys, List<TodoRow> rows, List<TodoEntry> entries, int start, int count) {
+        mLoading.removeAll(keys);
+        // Nothing to rebind when every To-do was deleted meanwhile
+        if (mListener == null || rows.isEmpty()) return;
+
+        for (TodoRow row : rows) {
+            mRows.put(row.key, row);
+        }
+        mListener.onWindowLoaded(entries, start, count);
+    }
+
+    // Executor thread only. To-dos deleted since the list was built are left out, the next snapshot
+    // removes their entries.
+    private List<TodoRow> readRows(Bucket<Todo> bucket, List<String> keys) {
+        List<TodoRow> rows = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            try {
+                rows.add(mCache.get(bucket, key).toRow());
+            } catch (BucketObjectMissingException e) {
+                // gone, nothing to show
+            }
+        }
+        return rows;
+    }
+}
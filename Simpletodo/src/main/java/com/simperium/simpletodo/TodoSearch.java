@@ -0,0 +1,168 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Search as you type over To-do titles, backed by a TodoSearchIndex held in memory. The index is
+ * built once in the background from the full bucket query the first time search is opened, and from
+ * then on each listener callback updates only the To-do it names. Until then the callbacks cost
+ * nothing. Queries run on the caller's thread and take a fraction of a frame at 100k To-dos, see
+ * TodoSearchBenchmark.
+ *
+ * A build races with the callbacks that arrive while it runs, the keys they name are looked up again
+ * once the new index is in place.
+ */
+public class TodoSearch {
+
+    public interface OnIndexBuiltListener {
+        // Called from a background thread once the index holds every To-do
+        void onSearchIndexBuilt(int size);
+    }
+
+    private final OnIndexBuiltListener mListener;
+    private final TodoCache mCache;
+
+    // Guarded by this
+    private TodoSearchIndex mIndex = new TodoSearchIndex();
+    private boolean mBuilt;
+    private boolean mBuilding;
+    // Changed while building, looked up again afterwards. A bucket wide change rebuilds instead.
+    private final Set<String> mChangedDuringBuild = new HashSet<>();
+    private boolean mBuildStale;
+
+    public TodoSearch(OnIndexBuiltListener listener, TodoCache cache) {
+        mListener = listener;
+        mCache = cache;
+    }
+
+    // Builds the index on the bucket's background executor unless it is built or being built
+    public void build(Bucket<Todo> bucket) {
+        synchronized (this) {
+            if (mBuilt || mBuilding) return;
+        }
+        startBuild(bucket);
+    }
+
+    // Must be called on the UI thread, finds nothing until the index is built
+    public List<TodoRow> search(String query) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                return mIndex.search(query);
+            }
+        } finally {
+            TodoMetrics.sSearch.recordSince(start);
+        }
+    }
+
+    // Called from Bucket.Listener.onSaveObject
+    public void onSaveObject(Bucket<Todo> bucket, Todo todo) {
+        put(todo.toRow());
+    }
+
+    // Called from Bucket.Listener.onDeleteObject
+    public void onDeleteObject(Bucket<Todo> bucket, Todo todo) {
+        remove(todo.getSimperiumKey());
+    }
+
+    // Called from Bucket.Listener.onNetworkChange, looks up the new title of modified To-dos
+    public void onNetworkChange(Bucket<Todo> bucket, Bucket.ChangeType changeType, String key) {
+        if (changeType == Bucket.ChangeType.REMOVE) {
+            remove(key);
+        } else if (key == null) {
+            // Bucket wide changes (indexing, resets) don't name an object
+            rebuild(bucket);
+        } else {
+            refresh(bucket, key);
+        }
+    }
+
+    // Builds the index again if it is in use, for changes too broad to apply key by key
+    public void rebuild(Bucket<Todo> bucket) {
+        synchronized (this) {
+            if (mBuilding) {
+                mBuildStale = true;
+                return;
+            }
+            if (!mBuilt) return;
+        }
+        startBuild(bucket);
+    }
+
+    private void startBuild(final Bucket<Todo> bucket) {
+        synchronized (this) {
+            mBuilding = true;
+            mBuildStale = false;
+            mChangedDuringBuild.clear();
+        }
+
+        bucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                long trace = TodoLog.beginTrace("TodoSearch.build");
+                TodoSearchIndex index = new TodoSearchIndex();
+                Bucket.ObjectCursor<Todo> cursor = Todo.queryAll(bucket).execute();
+                try {
+                    while (cursor.moveToNext()) {
+                        index.put(cursor.getObject().toRow());
+                    }
+                } finally {
+                    cursor.close();
+                }
+                TodoLog.endTrace("TodoSearch.build", trace);
+
+                Set<String> changed;
+                boolean stale;
+                synchronized (TodoSearch.this) {
+                    mIndex = index;
+                    mBuilt = true;
+                    mBuilding = false;
+                    stale = mBuildStale;
+                    changed = new HashSet<>(mChangedDuringBuild);
+                    mChangedDuringBuild.clear();
+                }
+
+                if (stale) {
+                    startBuild(bucket);
+                    return;
+                }
+                for (String key : changed) {
+                    refresh(bucket, key);
+                }
+                if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+                    TodoLog.d("Indexed " + index.size() + " todos for search");
+                }
+                mListener.onSearchIndexBuilt(index.size());
+            }
+        });
+    }
+
+    private synchronized boolean isIndexing() {
+        return mBuilt || mBuilding;
+    }
+
+    private void refresh(Bucket<Todo> bucket, String key) {
+        if (!isIndexing()) return;
+
+        try {
+            put(mCache.get(bucket, key).toRow());
+        } catch (BucketObjectMissingException e) {
+            remove(key);
+        }
+    }
+
+    private synchronized void put(TodoRow row) {
+        if (mBuilding) mChangedDuringBuild.add(row.key);
+        if (mBuilt) mIndex.put(row);
+    }
+
+    private synchronized void remove(String key) {
+        if (mBuilding) mChangedDuringBuild.add(key);
+        if (mBuilt) mIndex.remove(key);
+    }
+}
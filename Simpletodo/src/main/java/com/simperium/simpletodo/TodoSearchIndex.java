@@ -0,0 +1,215 @@
+package com.simperium.simpletodo;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An inverted index from the words of To-do titles to the To-dos that contain them. Words are
+ * normalized (lower cased, accents stripped) and kept in a sorted map, so every word starting with a
+ * prefix is one range of it. A query matches the To-dos whose title has a word starting with each of
+ * the query's words, in any order, and the matches come back in list order: sorted when they are
+ * few, picked from a walk of every To-do in list order when a short prefix matches much of the list.
+ *
+ * Rows are put and removed one at a time as the bucket changes. Not thread safe, see TodoSearch.
+ *
+ * Plain Java, so TodoSearchBenchmark builds and queries it on the JVM at 100k To-dos.
+ */
+public final class TodoSearchIndex {
+
+    private static final String[] NO_WORDS = new String[0];
+
+    // Past this share of the index a search walks every To-do in list order instead of sorting
+    private static final int SORT_LIMIT_DIVISOR = 8;
+
+    // Keys break ties so To-dos with equal ranks are still distinct
+    private static final Comparator<TodoRow> BY_ORDER = new Comparator<TodoRow>() {
+        @Override
+        public int compare(TodoRow left, TodoRow right) {
+            int order = Double.compare(left.order, right.order);
+            return order != 0 ? order : left.key.compareTo(right.key);
+        }
+    };
+
+    private static final Comparator<Entry> ENTRIES_BY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry left, Entry right) {
+            return BY_ORDER.compare(left.row, right.row);
+        }
+    };
+
+    private static final class Entry {
+        TodoRow row;
+        final String[] words;
+        // The last search that found the entry under its longest prefix
+        int candidate;
+
+        Entry(TodoRow row, String[] words) {
+            this.row = row;
+            this.words = words;
+        }
+    }
+
+    // Each word and the To-dos whose title contains it. Entries compare by identity.
+    private final TreeMap<String, Set<Entry>> mPostings = new TreeMap<>();
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    // Every To-do in list order
+    private final TreeSet<Entry> mOrdered = new TreeSet<>(ENTRIES_BY_ORDER);
+    private int mSearches;
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    // Adds the row or replaces the one with the same key, only a changed title touches the postings
+    public void put(TodoRow row) {
+        Entry previous = mEntries.get(row.key);
+        if (previous != null && previous.row.title.equals(row.title)) {
+            if (previous.row.order != row.order) {
+                mOrdered.remove(previous);
+                previous.row = row;
+                mOrdered.add(previous);
+            } else {
+                previous.row = row;
+            }
+            return;
+        }
+
+        if (previous != null) {
+            remove(previous);
+        }
+        Entry entry = new Entry(row, words(row.title));
+        for (String word : entry.words) {
+            Set<Entry> entries = mPostings.get(word);
+            if (entries == null) {
+                entries = new HashSet<>(4);
+                mPostings.put(word, entries);
+            }
+            entries.add(entry);
+        }
+        mEntries.put(row.key, entry);
+        mOrdered.add(entry);
+    }
+
+    public void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public void clear() {
+        mPostings.clear();
+        mEntries.clear();
+        mOrdered.clear();
+    }
+
+    // The rows matching every word of the query in list order, none for a query without words
+    public List<TodoRow> search(String query) {
+        String[] prefixes = words(query);
+        if (prefixes.length == 0) return Collections.emptyList();
+
+        // Only the To-dos matching the longest prefix, usually the fewest, are checked against the rest
+        String longest = prefixes[0];
+        for (String prefix : prefixes) {
+            if (prefix.length() > longest.length()) longest = prefix;
+        }
+
+        // Marks the candidates, a title with several words under the prefix is found under each
+        int search = ++mSearches;
+        List<Entry> candidates = new ArrayList<>();
+        for (Set<Entry> entries : mPostings.subMap(longest, longest + Character.MAX_VALUE).values()) {
+            for (Entry entry : entries) {
+                if (entry.candidate != search) {
+                    entry.candidate = search;
+                    candidates.add(entry);
+                }
+            }
+        }
+
+        // A short prefix can match much of the list, which is cheaper to walk in order than to sort
+        boolean walk = candidates.size() > mEntries.size() / SORT_LIMIT_DIVISOR;
+        List<TodoRow> rows = new ArrayList<>(walk ? candidates.size() : 16);
+        for (Entry entry : walk ? mOrdered : candidates) {
+            if (entry.candidate == search && (prefixes.length == 1 || matchesAll(entry.words, prefixes))) {
+                rows.add(entry.row);
+            }
+        }
+        if (!walk) {
+            Collections.sort(rows, BY_ORDER);
+        }
+        return rows;
+    }
+
+    private void remove(Entry entry) {
+        mOrdered.remove(entry);
+        for (String word : entry.words) {
+            Set<Entry> entries = mPostings.get(word);
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                mPostings.remove(word);
+            }
+        }
+    }
+
+    private static boolean matchesAll(String[] words, String[] prefixes) {
+        for (String prefix : prefixes) {
+            boolean matched = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) return false;
+        }
+        return true;
+    }
+
+    // The distinct normalized words of the text, runs of letters and digits
+    static String[] words(String text) {
+        if (text == null || text.isEmpty()) return NO_WORDS;
+
+        String normalized = normalize(text);
+        List<String> words = null;
+        StringBuilder word = new StringBuilder();
+        int length = normalized.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? normalized.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0 && !isAccent(c)) {
+                if (words == null) words = new ArrayList<>(4);
+                String next = word.toString();
+                if (!words.contains(next)) words.add(next);
+                word.setLength(0);
+            }
+        }
+        return words == null ? NO_WORDS : words.toArray(new String[words.size()]);
+    }
+
+    // Accents are split off the letters they were on by normalization, they don't end a word
+    private static boolean isAccent(char c) {
+        return Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    // Lower cased with accents decomposed so "Café" and "cafe" are the same word, plain ASCII titles
+    // skip the decomposition
+    private static String normalize(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0, length = lower.length(); i < length; i++) {
+            if (lower.charAt(i) > 0x7f) {
+                return Normalizer.normalize(lower, Normalizer.Form.NFD);
+            }
+        }
+        return lower;
+    }
+}
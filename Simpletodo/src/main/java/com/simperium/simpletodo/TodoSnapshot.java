@@ -0,0 +1,49 @@
+package com.simperium.simpletodo;
+
+import java.util.List;
+
+/**
+ * Every To-do at one point of the sync, as published by the TodoRepository: the whole list, the
+ * active and the completed To-dos, each an immutable list of TodoEntry in list order. Titles aren't
+ * part of a snapshot, the list reads them a window at a time through TodoRowWindows. Snapshots are
+ * shared by all subscribers across threads and never change once built.
+ */
+public final class TodoSnapshot {
+
+    private final long mSequence;
+    private final List<TodoEntry> mAll;
+    private final List<TodoEntry> mActive;
+    private final List<TodoEntry> mCompleted;
+
+    TodoSnapshot(long sequence, List<TodoEntry> all, List<TodoEntry> active, List<TodoEntry> completed) {
+        mSequence = sequence;
+        mAll = all;
+        mActive = active;
+        mCompleted = completed;
+    }
+
+    // The sync sequence the snapshot reflects, see TodoSyncOwner.getSequence()
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public List<TodoEntry> getEntries(TodoFilterIndex.Filter filter) {
+        switch (filter) {
+            case ACTIVE:
+                return mActive;
+            case COMPLETED:
+                return mCompleted;
+            default:
+                return mAll;
+        }
+    }
+
+    public int getCompletedCount() {
+        return mCompleted.size();
+    }
+
+    // The rank of the last To-do, NaN when there are none
+    public double getLastOrder() {
+        return mAll.isEmpty() ? Double.NaN : mAll.get(mAll.size() - 1).order;
+    }
+}
@@ -0,0 +1,293 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a compact binary copy of the top of the last list that was drawn so a cold start can show it
+ * before Simperium is ready. The file is decoded straight from a memory map and written on a
+ * background thread, only when the stored part of the list actually changed and only for the latest
+ * list when several arrive at once.
+ *
+ * Only what the first frames need is stored: the TodoEntries of the first MAX_ENTRIES rows, one
+ * TodoRowWindows window, and the titles of those that were loaded. The file stays at a few KB
+ * however many To-dos there are, and changes further down the list don't rewrite it. The rest of the
+ * list arrives with the first live snapshot, which the adapter takes as a whole.
+ *
+ * The file starts with a magic number, the format version, the entry and title counts, the payload
+ * length and a CRC32 of the payload. A file from another format version, a truncated file or one
+ * whose checksum doesn't match is ignored and deleted.
+ */
+public class TodoSnapshotStore {
+
+    private static final String FILE_NAME = "todo_snapshot.bin";
+    private static final int MAGIC = 0x53544453; // "STDS"
+    // Bump when the row layout changes
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 8;
+    // Rows on screen and a fast fling past them
+    private static final int MAX_ENTRIES = TodoRowWindows.WINDOW_SIZE;
+    // Strings are decoded through it, longer ones get an array of their own
+    private static final int SCRATCH_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public interface OnSnapshotReadListener {
+        // Called on the UI thread with the list and the rows of its first entries, both are empty
+        // when there was no usable snapshot
+        void onSnapshotRead(List<TodoEntry> entries, List<TodoRow> rows);
+    }
+
+    // A list and the rows loaded from its top, immutable
+    private static final class Stored {
+
+        static final Stored EMPTY = new Stored(Collections.<TodoEntry>emptyList(), Collections.<TodoRow>emptyList());
+
+        final List<TodoEntry> entries;
+        final List<TodoRow> rows;
+
+        Stored(List<TodoEntry> entries, List<TodoRow> rows) {
+            this.entries = entries;
+            this.rows = rows;
+        }
+    }
+
+    // One thread shared by every store so a read is never interleaved with a write
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private final File mFile;
+    private final File mTempFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<Stored> mPending = new AtomicReference<>();
+
+    // Executor thread only
+    private Stored mWritten;
+
+    public TodoSnapshotStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+    }
+
+    public void read(final OnSnapshotReadListener listener) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Stored stored = readFile();
+                mWritten = stored;
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSnapshotRead(stored.entries, stored.rows);
+                    }
+                });
+            }
+        });
+    }
+
+    // Stores the top of the list unless a later call replaces it before the write runs. The rows are
+    // those of the first entries and must have the titles the entries were hashed from.
+    public void write(List<TodoEntry> entries, List<TodoRow> rows) {
+        // Copied so the stored list doesn't keep the whole list alive
+        List<TodoEntry> top = new ArrayList<>(entries.subList(0, Math.min(entries.size(), MAX_ENTRIES)));
+        List<TodoRow> topRows = rows.size() > top.size() ? rows.subList(0, top.size()) : rows;
+        if (mPending.getAndSet(new Stored(top, topRows)) != null) return;
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Stored stored = mPending.getAndSet(null);
+                if (!isWritten(stored)) {
+                    writeFile(stored);
+                }
+            }
+        });
+    }
+
+    // For when the user signs out, the next user must not see these To-dos
+    public void clear() {
+        mPending.set(null);
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteFile();
+            }
+        });
+    }
+
+    // Executor thread only
+    private Stored readFile() {
+        if (!mFile.exists()) return Stored.EMPTY;
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Stored stored = decode(buffer);
+            if (stored != null) return stored;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            TodoLog.w("Could not read list snapshot", e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+
+        TodoLog.w("Discarding invalid list snapshot");
+        deleteFile();
+        return Stored.EMPTY;
+    }
+
+    // Returns null when the header doesn't match or the payload is corrupt. Reads the mapped file in
+    // place, only the strings are copied out.
+    private static Stored decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+
+        int count = buffer.getInt();
+        int titleCount = buffer.getInt();
+        int length = buffer.getInt();
+        long crc = buffer.getLong();
+        if (count < 0 || titleCount < 0 || titleCount > count || length != buffer.remaining()) return null;
+
+        byte[] scratch = new byte[SCRATCH_SIZE];
+        if (checksum(buffer.duplicate(), scratch) != crc) return null;
+
+        List<TodoEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = readString(buffer, scratch);
+            boolean done = buffer.get() != 0;
+            double order = buffer.getDouble();
+            long titleHash = buffer.getLong();
+            entries.add(new TodoEntry(key, order, done, titleHash));
+        }
+        List<TodoRow> rows = new ArrayList<>(titleCount);
+        for (int i = 0; i < titleCount; i++) {
+            TodoEntry entry = entries.get(i);
+            rows.add(new TodoRow(entry.key, readString(buffer, scratch), entry.done, entry.order));
+        }
+        return new Stored(Collections.unmodifiableList(entries), Collections.unmodifiableList(rows));
+    }
+
+    private void writeFile(Stored stored) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(stored.entries.size() * 40);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            for (TodoEntry entry : stored.entries) {
+                writeString(payload, entry.key);
+                payload.writeByte(entry.done ? 1 : 0);
+                payload.writeDouble(entry.order);
+                payload.writeLong(entry.titleHash);
+            }
+            for (TodoRow row : stored.rows) {
+                writeString(payload, row.title);
+            }
+            payload.flush();
+
+            byte[] data = bytes.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(data);
+
+            // Written aside and renamed so a crash never leaves a half written snapshot in place
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(mTempFile));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(stored.entries.size());
+                out.writeInt(stored.rows.size());
+                out.writeInt(data.length);
+                out.writeLong(checksum.getValue());
+                out.write(data);
+            } finally {
+                out.close();
+            }
+
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Could not rename " + mTempFile);
+            }
+            mWritten = stored;
+        } catch (IOException e) {
+            TodoLog.w("Could not write list snapshot", e);
+            deleteFile();
+        }
+    }
+
+    private void deleteFile() {
+        mWritten = null;
+        mFile.delete();
+        mTempFile.delete();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // A mapped buffer has no array to decode from, the bytes go through the scratch array
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    // CRC32 of the rest of the buffer, a scratch array at a time. CRC32.update(ByteBuffer) needs API 26.
+    private static long checksum(ByteBuffer buffer, byte[] scratch) {
+        CRC32 checksum = new CRC32();
+        while (buffer.hasRemaining()) {
+            int count = Math.min(scratch.length, buffer.remaining());
+            buffer.get(scratch, 0, count);
+            checksum.update(scratch, 0, count);
+        }
+        return checksum.getValue();
+    }
+
+    // Executor thread only. The titles match the entries' hashes, so equal entries and as many
+    // titles mean the same file.
+    private boolean isWritten(Stored stored) {
+        if (mWritten == null || stored.rows.size() != mWritten.rows.size()) return false;
+
+        List<TodoEntry> entries = stored.entries;
+        List<TodoEntry> written = mWritten.entries;
+        if (entries == written) return true;
+        if (entries.size() != written.size()) return false;
+
+        for (int i = 0; i < entries.size(); i++) {
+            TodoEntry entry = entries.get(i);
+            TodoEntry other = written.get(i);
+            if (!entry.key.equals(other.key) || !entry.hasSameContent(other) || entry.order != other.order) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
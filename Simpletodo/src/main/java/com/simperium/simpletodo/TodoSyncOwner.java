@@ -0,0 +1,150 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.simperium.client.Bucket;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Owns the To-do bucket's sync for the whole process. The TodoRepository acquires it while anything
+ * is subscribed to it and releases it once nothing is. The bucket is started by the first holder and
+ * only stopped once nobody has held it for GRACE_PERIOD_MS, so a rotation or a trip to another app
+ * doesn't reconnect.
+ *
+ * The owner stays registered as the bucket's only listener and forwards every callback to the
+ * listeners added to it, whether or not anyone holds the sync, so local saves made after the last
+ * release are still heard. Every change is stamped with a sequence number and invalidates the To-do
+ * in the TodoCache before any listener hears of it.
+ *
+ * acquire() and release() must be called on the main thread.
+ */
+public class TodoSyncOwner implements Bucket.Listener<Todo> {
+
+    public static final int GRACE_PERIOD_MS = 10000;
+
+    private final Bucket<Todo> mBucket;
+    private final TodoCache mCache;
+    private final Handler mMainHandler;
+    // Offline builds have no credentials, the bucket is used as local storage only
+    private final boolean mOffline;
+    private final List<Bucket.Listener<Todo>> mListeners = new CopyOnWriteArrayList<>();
+
+    private final Runnable mStopRunnable = new Runnable() {
+        @Override
+        public void run() {
+            stop();
+        }
+    };
+
+    // Main thread only
+    private final Set<Object> mHolders = new HashSet<>();
+    private boolean mStarted;
+    private int mStartCount;
+
+    // Guarded by this
+    private long mSequence;
+
+    public TodoSyncOwner(Bucket<Todo> bucket, TodoCache cache) {
+        this(bucket, cache, new Handler(Looper.getMainLooper()), BuildConfig.SIMPERIUM_OFFLINE);
+    }
+
+    // The handler runs the delayed stop, tests pass one on a clock they control
+    TodoSyncOwner(Bucket<Todo> bucket, TodoCache cache, Handler mainHandler, boolean offline) {
+        mBucket = bucket;
+        mCache = cache;
+        mMainHandler = mainHandler;
+        mOffline = offline;
+        mBucket.addListener(this);
+    }
+
+    // Safe to call from any thread, the listener hears of every change from now on
+    public void addListener(Bucket.Listener<Todo> listener) {
+        mListeners.add(listener);
+    }
+
+    // Starts the bucket unless it is already running or waiting to be stopped
+    public void acquire(Object holder) {
+        if (!mHolders.add(holder) || mHolders.size() > 1) return;
+
+        mMainHandler.removeCallbacks(mStopRunnable);
+        if (!mStarted && !mOffline) {
+            mStarted = true;
+            mStartCount++;
+            mBucket.start();
+            if (TodoLog.isLoggable(TodoLog.DEBUG)) {
+                TodoLog.d("Started sync, " + mStartCount + " starts");
+            }
+        }
+    }
+
+    // The bucket keeps syncing for the grace period after the last holder is gone
+    public void release(Object holder) {
+        if (mHolders.remove(holder) && mHolders.isEmpty()) {
+            mMainHandler.postDelayed(mStopRunnable, GRACE_PERIOD_MS);
+        }
+    }
+
+    public int getStartCount() {
+        return mStartCount;
+    }
+
+    private void stop() {
+        if (!mHolders.isEmpty() || !mStarted) return;
+
+        mStarted = false;
+        mBucket.stop();
+        TodoLog.d("Stopped sync after the grace period");
+    }
+
+    // The sequence of the latest change, stamps the snapshots and the saves of the write queue
+    public synchronized long getSequence() {
+        return mSequence;
+    }
+
+    private synchronized void recordChange(String key) {
+        mSequence++;
+
+        // Bucket wide changes don't name an object
+        if (key == null) {
+            mCache.invalidateAll();
+        } else {
+            mCache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void onSaveObject(Bucket<Todo> bucket, Todo todo) {
+        recordChange(todo.getSimperiumKey());
+        for (Bucket.Listener<Todo> listener : mListeners) {
+            listener.onSaveObject(bucket, todo);
+        }
+    }
+
+    @Override
+    public void onDeleteObject(Bucket<Todo> bucket, Todo todo) {
+        recordChange(todo.getSimperiumKey());
+        for (Bucket.Listener<Todo> listener : mListeners) {
+            listener.onDeleteObject(bucket, todo);
+        }
+    }
+
+    @Override
+    public void onBeforeUpdateObject(Bucket<Todo> bucket, Todo todo) {
+        for (Bucket.Listener<Todo> listener : mListeners) {
+            listener.onBeforeUpdateObject(bucket, todo);
+        }
+    }
+
+    @Override
+    public void onNetworkChange(Bucket<Todo> bucket, Bucket.ChangeType changeType, String key) {
+        recordChange(key);
+        for (Bucket.Listener<Todo> listener : mListeners) {
+            listener.onNetworkChange(bucket, changeType, key);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.simperium.simpletodo;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.widget.RemoteViews;
+
+/**
+ * The home screen widget: the open To-dos and how many are completed. Everything it shows comes from
+ * the TodoWidgetStore. Updates requested by the system read the summary on a background thread, and
+ * the TodoWidgetUpdater pushes new ones as the To-dos change, so the widget never starts the bucket
+ * or queries it. The list rows are served by TodoWidgetService.
+ */
+public class TodoWidgetProvider extends AppWidgetProvider {
+
+    @Override
+    public void onUpdate(final Context context, final AppWidgetManager manager, final int[] appWidgetIds) {
+        // Reading the summary touches storage, the broadcast is kept alive until it is done
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TodoWidgetStore.Summary summary = new TodoWidgetStore(context).read();
+                    manager.updateAppWidget(appWidgetIds, buildViews(context, summary));
+                } finally {
+                    result.finish();
+                }
+            }
+        }, "widget-update").start();
+    }
+
+    // Shows the summary on every widget, the list rows read it again from the store
+    static void update(Context context, TodoWidgetStore.Summary summary) {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = manager.getAppWidgetIds(new ComponentName(context, TodoWidgetProvider.class));
+        if (appWidgetIds.length == 0) return;
+
+        manager.updateAppWidget(appWidgetIds, buildViews(context, summary));
+        manager.notifyAppWidgetViewDataChanged(appWidgetIds, R.id.widget_list);
+    }
+
+    private static RemoteViews buildViews(Context context, TodoWidgetStore.Summary summary) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget);
+        views.setTextViewText(R.id.widget_counts,
+                context.getString(R.string.widget_counts, summary.openCount, summary.completedCount));
+        views.setRemoteAdapter(R.id.widget_list, new Intent(context, TodoWidgetService.class));
+        views.setEmptyView(R.id.widget_list, R.id.widget_empty);
+
+        // Tapping the header or a row opens the list
+        PendingIntent open = PendingIntent.getActivity(context, 0, new Intent(context, TodoListActivity.class), 0);
+        views.setOnClickPendingIntent(R.id.widget_header, open);
+        views.setPendingIntentTemplate(R.id.widget_list, open);
+        return views;
+    }
+}
@@ -0,0 +1,86 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.content.Intent;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serves the rows of the widget's list, the open To-do titles from the TodoWidgetStore. The summary
+ * is read again in onDataSetChanged(), which runs on a binder thread, whenever TodoWidgetProvider
+ * reports new data.
+ */
+public class TodoWidgetService extends RemoteViewsService {
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new TitlesFactory(getApplicationContext());
+    }
+
+    private static class TitlesFactory implements RemoteViewsFactory {
+
+        private final Context mContext;
+        private final TodoWidgetStore mStore;
+        private List<String> mTitles = Collections.emptyList();
+
+        TitlesFactory(Context context) {
+            mContext = context;
+            mStore = new TodoWidgetStore(context);
+        }
+
+        @Override
+        public void onCreate() {
+            // read in onDataSetChanged(), which is also called first
+        }
+
+        @Override
+        public void onDataSetChanged() {
+            mTitles = mStore.read().titles;
+        }
+
+        @Override
+        public void onDestroy() {
+            mTitles = Collections.emptyList();
+        }
+
+        @Override
+        public int getCount() {
+            return mTitles.size();
+        }
+
+        @Override
+        public RemoteViews getViewAt(int position) {
+            String title = mTitles.get(position);
+            RemoteViews views = new RemoteViews(mContext.getPackageName(), R.layout.widget_row);
+            views.setTextViewText(R.id.widget_title,
+                    TextUtils.isEmpty(title) ? mContext.getString(R.string.empty_task_title) : title);
+            // Filled into the provider's template, which opens the list
+            views.setOnClickFillInIntent(R.id.widget_title, new Intent());
+            return views;
+        }
+
+        @Override
+        public RemoteViews getLoadingView() {
+            return null;
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The compact summary the home screen widget shows: the titles of the first MAX_TITLES open To-dos
+ * in list order, and the open and completed counts. TodoWidgetUpdater writes it off the main thread
+ * when a snapshot changes it, and the widget only ever reads this file, so a widget refresh doesn't
+ * need Simperium or a query.
+ *
+ * The file follows TodoSnapshotStore: a magic number, the format version, the counts, the payload
+ * length and a CRC32 of the payload, written aside and renamed so a reader never sees half of it. A
+ * file that doesn't check out reads as the empty summary.
+ *
+ * Reads and writes block, they must not be called on the main thread.
+ */
+public class TodoWidgetStore {
+
+    public static final int MAX_TITLES = 50;
+
+    private static final String FILE_NAME = "todo_widget.bin";
+    private static final int MAGIC = 0x53544457; // "STDW"
+    // Bump when the layout changes
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 4 + 4 + 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final class Summary {
+
+        public static final Summary EMPTY = new Summary(Collections.<String>emptyList(), 0, 0);
+
+        public final List<String> titles;
+        public final int openCount;
+        public final int completedCount;
+
+        Summary(List<String> titles, int openCount, int completedCount) {
+            this.titles = titles;
+            this.openCount = openCount;
+            this.completedCount = completedCount;
+        }
+
+        // The titles are those of the snapshot's first MAX_TITLES open To-dos, snapshots don't have them
+        static Summary of(TodoSnapshot snapshot, List<String> titles) {
+            return new Summary(Collections.unmodifiableList(titles),
+                    snapshot.getEntries(TodoFilterIndex.Filter.ACTIVE).size(), snapshot.getCompletedCount());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Summary)) return false;
+
+            Summary other = (Summary) o;
+            return openCount == other.openCount && completedCount == other.completedCount
+                    && titles.equals(other.titles);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * openCount + completedCount) + titles.hashCode();
+        }
+    }
+
+    private final File mFile;
+    private final File mTempFile;
+
+    public TodoWidgetStore(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+    }
+
+    public Summary read() {
+        if (!mFile.exists()) return Summary.EMPTY;
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            Summary summary = decode(ByteBuffer.wrap(data));
+            if (summary != null) return summary;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            TodoLog.w("Could not read widget summary", e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+
+        TodoLog.w("Discarding invalid widget summary");
+        return Summary.EMPTY;
+    }
+
+    // Returns false when the summary could not be stored
+    public boolean write(Summary summary) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(summary.titles.size() * 32);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            for (String title : summary.titles) {
+                byte[] encoded = title.getBytes(UTF_8);
+                payload.writeInt(encoded.length);
+                payload.write(encoded);
+            }
+            payload.flush();
+
+            byte[] data = bytes.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(data);
+
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(mTempFile));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(summary.openCount);
+                out.writeInt(summary.completedCount);
+                out.writeInt(summary.titles.size());
+                out.writeInt(data.length);
+                out.writeLong(checksum.getValue());
+                out.write(data);
+            } finally {
+                out.close();
+            }
+
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Could not rename " + mTempFile);
+            }
+            return true;
+        } catch (IOException e) {
+            TodoLog.w("Could not write widget summary", e);
+            clear();
+            return false;
+        }
+    }
+
+    public void clear() {
+        mFile.delete();
+        mTempFile.delete();
+    }
+
+    // Returns null when the header doesn't match or the payload is corrupt
+    private static Summary decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) return null;
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) return null;
+
+        int openCount = buffer.getInt();
+        int completedCount = buffer.getInt();
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        long crc = buffer.getLong();
+        if (count < 0 || count > MAX_TITLES || length != buffer.remaining()) return null;
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), buffer.position(), length);
+        if (checksum.getValue() != crc) return null;
+
+        List<String> titles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = buffer.getInt();
+            if (size < 0 || size > buffer.remaining()) {
+                throw new IllegalArgumentException("Bad title length " + size);
+            }
+            titles.add(new String(buffer.array(), buffer.position(), size, UTF_8));
+            buffer.position(buffer.position() + size);
+        }
+        return new Summary(Collections.unmodifiableList(titles), openCount, completedCount);
+    }
+}
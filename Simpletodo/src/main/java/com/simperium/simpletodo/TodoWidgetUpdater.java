@@ -0,0 +1,143 @@
+package com.simperium.simpletodo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the home screen widget in step with the To-dos. It observes the TodoRepository on its own
+ * background thread, without keeping the bucket syncing, and writes the TodoWidgetStore summary
+ * whenever a snapshot changes what the widget shows. Widgets are updated at most once per update
+ * interval: changes within it are written as they come and picked up by the one pending update.
+ *
+ * Snapshots don't carry titles, the titles of the first open To-dos are read through the TodoCache
+ * on the updater thread, and only again when those To-dos or their titles changed.
+ */
+public class TodoWidgetUpdater implements TodoRepository.OnSnapshotListener {
+
+    private final Context mContext;
+    private final TodoWidgetStore mStore;
+    private final long mIntervalMs;
+    private final Handler mHandler;
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    private Bucket<Todo> mBucket;
+    private TodoCache mCache;
+
+    // Updater thread only. The summary in the store, null until it has been read.
+    private TodoWidgetStore.Summary mWritten;
+    // The open To-dos mTitles were read for
+    private List<TodoEntry> mTitled = Collections.emptyList();
+    private List<String> mTitles = Collections.emptyList();
+    private long mLastUpdateTime = -1;
+    private boolean mUpdatePending;
+
+    public TodoWidgetUpdater(Context context, long intervalMs) {
+        mContext = context.getApplicationContext();
+        mStore = new TodoWidgetStore(mContext);
+        mIntervalMs = intervalMs;
+
+        HandlerThread thread = new HandlerThread("todo-widget", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    // Main thread only. Starts observing, the summary stored last time is read first so an unchanged
+    // list isn't written again.
+    public void start(TodoRepository repository, final Bucket<Todo> bucket, final TodoCache cache) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBucket = bucket;
+                mCache = cache;
+                mWritten = mStore.read();
+            }
+        });
+        repository.observe(this, mHandler);
+    }
+
+    // For when the user signs out. Deletes the stored summary and shows the empty one on every widget
+    // right away, without waiting for the update interval.
+    public void clear() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStore.clear();
+                mWritten = TodoWidgetStore.Summary.EMPTY;
+                mTitled = Collections.emptyList();
+                mTitles = Collections.emptyList();
+                mHandler.removeCallbacks(mUpdateRunnable);
+                update();
+            }
+        });
+    }
+
+    @Override
+    public void onTodoSnapshot(TodoSnapshot snapshot) {
+        List<TodoEntry> open = snapshot.getEntries(TodoFilterIndex.Filter.ACTIVE);
+        List<TodoEntry> shown = open.subList(0, Math.min(open.size(), TodoWidgetStore.MAX_TITLES));
+        if (!sameTitles(shown, mTitled)) {
+            mTitles = readTitles(shown);
+            mTitled = shown;
+        }
+
+        TodoWidgetStore.Summary summary = TodoWidgetStore.Summary.of(snapshot, mTitles);
+        if (summary.equals(mWritten) || !mStore.write(summary)) return;
+
+        mWritten = summary;
+        scheduleUpdate();
+    }
+
+    // To-dos deleted since the snapshot was taken are left out, the next snapshot drops them
+    private List<String> readTitles(List<TodoEntry> entries) {
+        List<String> titles = new ArrayList<>(entries.size());
+        for (TodoEntry entry : entries) {
+            try {
+                titles.add(mCache.get(mBucket, entry.key).getTitle());
+            } catch (BucketObjectMissingException e) {
+                // gone, nothing to show
+            }
+        }
+        return titles;
+    }
+
+    private static boolean sameTitles(List<TodoEntry> entries, List<TodoEntry> titled) {
+        if (entries.size() != titled.size()) return false;
+
+        for (int i = 0; i < entries.size(); i++) {
+            TodoEntry entry = entries.get(i);
+            TodoEntry other = titled.get(i);
+            if (!entry.key.equals(other.key) || entry.titleHash != other.titleHash) return false;
+        }
+        return true;
+    }
+
+    private void scheduleUpdate() {
+        if (mUpdatePending) return;
+
+        mUpdatePending = true;
+        long wait = mLastUpdateTime < 0 ? 0 : mLastUpdateTime + mIntervalMs - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mUpdateRunnable, Math.max(0, wait));
+    }
+
+    private void update() {
+        mUpdatePending = false;
+        mLastUpdateTime = SystemClock.uptimeMillis();
+        TodoWidgetProvider.update(mContext, mWritten);
+    }
+}
@@ -0,0 +1,214 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saves To-do edits without touching storage on the UI thread. Edits are queued per key and written
+ * once no edit has been made for QUIET_PERIOD_MS, or MAX_DELAY_MS after the first one if edits keep
+ * coming, so repeated edits to the same To-do become one lookup and one save with the latest value
+ * of each property.
+ *
+ * Toggles are optimistic: the list shows getDone() right away while the change waits in the queue,
+ * and keeps showing it after the save until a list loaded after the save is delivered. Toggling a
+ * To-do back to its saved state drops the pending change, so flipping it back and forth writes
+ * nothing.
+ *
+ * The lookup and save run on the bucket's executor. A To-do deleted before its edits were written is
+ * reported to the listener on the main thread. Everything else must be called on the main thread.
+ */
+public class TodoWriteQueue {
+
+    public static final int QUIET_PERIOD_MS = 500;
+    public static final int MAX_DELAY_MS = 3000;
+
+    public interface OnWriteFailedListener {
+        // Called on the main thread with the key of a To-do that no longer exists
+        void onTodoMissing(String key);
+    }
+
+    private final Bucket<Todo> mBucket;
+    private final TodoSyncOwner mSyncOwner;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Main thread only. The properties to set for each key, in the order the keys were first edited.
+    private Map<String, Map<String, Object>> mPending = new LinkedHashMap<>();
+    // The done state storage will hold for each To-do with a pending toggle, before the toggle
+    private final Map<String, Boolean> mDoneBase = new HashMap<>();
+    // Toggles that were written but may not be in the list on screen yet
+    private final Map<String, WrittenDone> mWrittenDone = new HashMap<>();
+    private long mFirstPendingTime;
+    private OnWriteFailedListener mListener;
+
+    private static final class WrittenDone {
+        final boolean done;
+        // The sync sequence once the save has landed
+        long sequence = Long.MAX_VALUE;
+
+        WrittenDone(boolean done) {
+            this.done = done;
+        }
+    }
+
+    public TodoWriteQueue(Bucket<Todo> bucket, TodoSyncOwner syncOwner) {
+        mBucket = bucket;
+        mSyncOwner = syncOwner;
+    }
+
+    public void setOnWriteFailedListener(OnWriteFailedListener listener) {
+        mListener = listener;
+    }
+
+    public void submitTitle(String key, String title) {
+        submit(key, TodoFields.TITLE_PROPERTY, title);
+    }
+
+    public void submit(String key, String property, Object value) {
+        Map<String, Object> properties = mPending.get(key);
+        if (properties == null) {
+            properties = new HashMap<>();
+            mPending.put(key, properties);
+        }
+        properties.put(property, value);
+        scheduleFlush();
+    }
+
+    // Flips the done state shown for the To-do and returns it. rowDone is the state in the list on
+    // screen, which lags behind toggles this queue has written.
+    public boolean toggleDone(String key, boolean rowDone) {
+        Boolean base = mDoneBase.get(key);
+        if (base == null) {
+            WrittenDone written = mWrittenDone.get(key);
+            base = written != null ? written.done : rowDone;
+        }
+        boolean done = !getDone(key, rowDone);
+
+        if (done == base) {
+            // Back where it started, nothing to write
+            mDoneBase.remove(key);
+            Map<String, Object> properties = mPending.get(key);
+            if (properties != null) {
+                properties.remove(TodoFields.DONE_PROPERTY);
+                if (properties.isEmpty()) mPending.remove(key);
+            }
+        } else {
+            mDoneBase.put(key, base);
+            submit(key, TodoFields.DONE_PROPERTY, done ? TodoFields.DONE : TodoFields.NOT_DONE);
+        }
+        return done;
+    }
+
+    // The done state to show for a To-do, taking pending and not yet listed toggles into account
+    public boolean getDone(String key, boolean rowDone) {
+        if (mDoneBase.isEmpty() && mWrittenDone.isEmpty()) return rowDone;
+
+        Map<String, Object> properties = mPending.get(key);
+        Object pending = properties == null ? null : properties.get(TodoFields.DONE_PROPERTY);
+        if (pending != null) return TodoFields.decodeDone(pending);
+
+        WrittenDone written = mWrittenDone.get(key);
+        return written != null ? written.done : rowDone;
+    }
+
+    // A list loaded at the sync sequence was delivered, it includes every save that landed before
+    public void onListDelivered(long sequence) {
+        Iterator<WrittenDone> written = mWrittenDone.values().iterator();
+        while (written.hasNext()) {
+            if (written.next().sequence <= sequence) {
+                written.remove();
+            }
+        }
+    }
+
+    // Pushed back on every edit, but never past MAX_DELAY_MS after the first pending one
+    private void scheduleFlush() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstPendingTime == 0) {
+            mFirstPendingTime = now;
+        }
+
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        long delay = Math.min(QUIET_PERIOD_MS, mFirstPendingTime + MAX_DELAY_MS - now);
+        mMainHandler.postDelayed(mFlushRunnable, Math.max(0, delay));
+    }
+
+    // Writes everything queued now, for when the app may be about to go away
+    public void flush() {
+        mMainHandler.removeCallbacks(mFlushRunnable);
+        mFirstPendingTime = 0;
+        mDoneBase.clear();
+        if (mPending.isEmpty()) return;
+
+        final Map<String, Map<String, Object>> writes = mPending;
+        mPending = new LinkedHashMap<>();
+
+        final Map<String, WrittenDone> toggles = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> write : writes.entrySet()) {
+            Object done = write.getValue().get(TodoFields.DONE_PROPERTY);
+            if (done != null) {
+                WrittenDone written = new WrittenDone(TodoFields.decodeDone(done));
+                toggles.put(write.getKey(), written);
+                mWrittenDone.put(write.getKey(), written);
+            }
+        }
+
+        mBucket.executeAsync(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, Map<String, Object>> write : writes.entrySet()) {
+                    save(write.getKey(), write.getValue(), toggles.get(write.getKey()));
+                }
+            }
+        });
+    }
+
+    // Executor thread only
+    private void save(final String key, Map<String, Object> properties, final WrittenDone written) {
+        boolean saved = false;
+        try {
+            Todo todo = mBucket.get(key);
+            for (Map.Entry<String, Object> property : properties.entrySet()) {
+                todo.setProperty(property.getKey(), property.getValue());
+            }
+            todo.save();
+            saved = true;
+        } catch (BucketObjectMissingException e) {
+            // reported below
+        }
+
+        // The save's listener callback has already advanced the sequence
+        final long sequence = mSyncOwner.getSequence();
+        final boolean missing = !saved;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (written != null && mWrittenDone.get(key) == written) {
+                    if (missing) {
+                        mWrittenDone.remove(key);
+                    } else {
+                        written.sequence = sequence;
+                    }
+                }
+                if (missing && mListener != null) {
+                    mListener.onTodoMissing(key);
+                }
+            }
+        });
+    }
+}
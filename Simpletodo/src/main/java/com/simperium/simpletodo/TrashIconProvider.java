@@ -30,8 +30,12 @@ public class TrashIconProvider extends ActionProvider {
         mBadgeCount = count;
     }
 
+    // Returns true when the count changed and the menu needs to be invalidated
     public boolean updateBadgeCount(int count) {
-        return count != mBadgeCount;
+        if (count == mBadgeCount) return false;
+
+        mBadgeCount = count;
+        return true;
     }
 
     @Override
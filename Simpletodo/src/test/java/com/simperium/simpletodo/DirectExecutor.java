@@ -0,0 +1,47 @@
+package com.simperium.simpletodo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An ExecutorService that runs every task right away on the calling thread, for classes that read in
+ * the background and post the result to a Handler. With a ManualHandler the test decides when the
+ * results arrive.
+ */
+final class DirectExecutor extends AbstractExecutorService {
+
+    private volatile boolean mShutdown;
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public void shutdown() {
+        mShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        mShutdown = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+}
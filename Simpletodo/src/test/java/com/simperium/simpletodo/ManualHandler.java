@@ -0,0 +1,112 @@
+package com.simperium.simpletodo;
+
+import android.os.Handler;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A mocked Handler on a clock the test moves by hand. Posted Runnables only run once advanceBy()
+ * passes their time, so delays, grace periods and coalescing windows are checked without sleeping.
+ * Posting is safe from any thread, advanceBy() runs the Runnables on the test's thread.
+ */
+final class ManualHandler {
+
+    private static final class Task {
+        final Runnable runnable;
+        final long time;
+
+        Task(Runnable runnable, long time) {
+            this.runnable = runnable;
+            this.time = time;
+        }
+    }
+
+    private final Handler mHandler = mock(Handler.class);
+    // Guarded by this, in posting order
+    private final List<Task> mTasks = new ArrayList<>();
+    private long mNow;
+
+    ManualHandler() {
+        when(mHandler.post(any(Runnable.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                enqueue((Runnable) invocation.getArguments()[0], 0);
+                return true;
+            }
+        });
+        when(mHandler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                enqueue((Runnable) invocation.getArguments()[0], (Long) invocation.getArguments()[1]);
+                return true;
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                remove((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(mHandler).removeCallbacks(any(Runnable.class));
+    }
+
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    // Runs every Runnable due by then in time order, including the ones they post
+    void advanceBy(long millis) {
+        long end;
+        synchronized (this) {
+            end = mNow + millis;
+        }
+
+        Task task;
+        while ((task = nextDue(end)) != null) {
+            task.runnable.run();
+        }
+
+        synchronized (this) {
+            mNow = end;
+        }
+    }
+
+    private synchronized void enqueue(Runnable runnable, long delay) {
+        mTasks.add(new Task(runnable, mNow + Math.max(0, delay)));
+    }
+
+    private synchronized void remove(Runnable runnable) {
+        Iterator<Task> tasks = mTasks.iterator();
+        while (tasks.hasNext()) {
+            if (tasks.next().runnable == runnable) tasks.remove();
+        }
+    }
+
+    // Removes and returns the earliest task due by the time, moving the clock to it
+    private synchronized Task nextDue(long end) {
+        Task next = null;
+        for (Task task : mTasks) {
+            if (task.time <= end && (next == null || task.time < next.time)) next = task;
+        }
+        if (next != null) {
+            mTasks.remove(next);
+            mNow = next.time;
+        }
+        return next;
+    }
+}
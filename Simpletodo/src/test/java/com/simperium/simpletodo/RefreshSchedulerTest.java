@@ -0,0 +1,151 @@
+package com.simperium.simpletodo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class RefreshSchedulerTest {
+
+    private static final long WINDOW_MS = RefreshScheduler.FRAME_WINDOW_MS;
+    private static final int CALLBACKS = 10000;
+
+    private ManualHandler mHandler;
+    private RefreshScheduler mScheduler;
+    // The merged request count of every refresh, one entry per requery
+    private List<Integer> mRefreshes;
+
+    @Before
+    public void setUp() {
+        mHandler = new ManualHandler();
+        mRefreshes = new ArrayList<>();
+        mScheduler = new RefreshScheduler(mHandler.getHandler(), WINDOW_MS, new RefreshScheduler.OnRefreshListener() {
+            @Override
+            public void onRefresh(int mergedRequests) {
+                mRefreshes.add(mergedRequests);
+            }
+        });
+    }
+
+    @Test
+    public void burstWithinOneWindowRequeriesOnce() {
+        for (int i = 0; i < CALLBACKS; i++) {
+            mScheduler.requestRefresh();
+        }
+        assertEquals(0, mRefreshes.size());
+
+        mHandler.advanceBy(WINDOW_MS);
+
+        assertEquals(1, mRefreshes.size());
+        assertEquals(CALLBACKS, (int) mRefreshes.get(0));
+        assertEquals(CALLBACKS, mScheduler.getTotalRequests());
+        assertEquals(1, mScheduler.getTotalRefreshes());
+        assertEquals(CALLBACKS - 1, mScheduler.getMergedRequests());
+    }
+
+    @Test
+    public void callbacksFromManyThreadsRequeryOnce() throws InterruptedException {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < CALLBACKS / threads; i++) {
+                            mScheduler.requestRefresh();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+
+        // Only the first request of the burst posted the refresh
+        assertEquals(1, mHandler.getPendingCount());
+        mHandler.advanceBy(WINDOW_MS);
+
+        assertEquals(1, mRefreshes.size());
+        assertEquals(CALLBACKS, (int) mRefreshes.get(0));
+    }
+
+    @Test
+    public void steadyStreamRequeriesOncePerWindow() {
+        // Ten callbacks a millisecond for a second
+        int windows = 0;
+        for (int ms = 0; ms < 1000; ms++) {
+            for (int i = 0; i < 10; i++) {
+                mScheduler.requestRefresh();
+            }
+            mHandler.advanceBy(1);
+        }
+        mHandler.advanceBy(WINDOW_MS);
+
+        int merged = 0;
+        for (int requests : mRefreshes) {
+            merged += requests;
+            windows++;
+        }
+        assertEquals(10000, merged);
+        // Requests keep coming, so each refresh is followed by the next window right away
+        assertEquals((1000 + WINDOW_MS - 1) / WINDOW_MS, windows);
+    }
+
+    @Test
+    public void suspendedRequestsRequeryOnceOnResume() {
+        mScheduler.suspend();
+        for (int i = 0; i < CALLBACKS; i++) {
+            mScheduler.requestRefresh();
+        }
+        mHandler.advanceBy(WINDOW_MS * 100);
+        assertEquals(0, mRefreshes.size());
+
+        mScheduler.resume();
+        mHandler.advanceBy(0);
+
+        assertEquals(1, mRefreshes.size());
+        assertEquals(CALLBACKS, (int) mRefreshes.get(0));
+    }
+
+    @Test
+    public void nestedSuspendWaitsForTheLastResume() {
+        mScheduler.suspend();
+        mScheduler.suspend();
+        mScheduler.requestRefresh();
+
+        mScheduler.resume();
+        mHandler.advanceBy(WINDOW_MS);
+        assertEquals(0, mRefreshes.size());
+
+        mScheduler.resume();
+        mHandler.advanceBy(0);
+        assertEquals(1, mRefreshes.size());
+    }
+
+    @Test
+    public void cancelDropsPendingRequests() {
+        for (int i = 0; i < CALLBACKS; i++) {
+            mScheduler.requestRefresh();
+        }
+        mScheduler.cancel();
+        mHandler.advanceBy(WINDOW_MS);
+        assertEquals(0, mRefreshes.size());
+
+        // The next request opens a new window
+        mScheduler.requestRefresh();
+        mHandler.advanceBy(WINDOW_MS);
+        assertEquals(1, mRefreshes.size());
+        assertEquals(1, (int) mRefreshes.get(0));
+    }
+}
@@ -0,0 +1,166 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * onBindViewHolder() runs for every row scrolled on screen, so the helpers it calls must not
+ * allocate. Counts the bytes the test thread allocates over many calls, which is only possible on a
+ * JVM that reports per thread allocation, the test is skipped elsewhere.
+ *
+ * bindingLoadedRowsDoesNotAllocate() makes every call of a bind but the views' own: the row from
+ * TodoRowWindows, which checks its windows and prefetches, the done state and the bind time.
+ */
+public class TodoBindAllocationTest {
+
+    private static final int ROWS = 1000;
+    private static final int BINDS = 100000;
+    // Slack for the measurement itself
+    private static final long MAX_BYTES = 1024;
+
+    private com.sun.management.ThreadMXBean mThreads;
+    private String[] mKeys;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+
+        mKeys = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            mKeys[i] = "todo-" + i;
+            // Strings cache their hash code on first use
+            mKeys[i].hashCode();
+        }
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // The same calls as a bind, warmed up first so class loading isn't counted
+    private int bind(TodoWriteQueue queue, int times) {
+        int done = 0;
+        for (int i = 0; i < times; i++) {
+            if (queue.getDone(mKeys[i % ROWS], i % 2 == 0)) done++;
+        }
+        return done;
+    }
+
+    private long bytesPerBinds(TodoWriteQueue queue) {
+        bind(queue, BINDS);
+        long before = allocatedBytes();
+        int done = bind(queue, BINDS);
+        long allocated = allocatedBytes() - before;
+        assertTrue(done > 0);
+        return allocated;
+    }
+
+    // onBindViewHolder() without the views, scrolling down the list over and over
+    private int bindRows(TodoRowWindows windows, List<TodoEntry> entries, TodoWriteQueue queue, int times) {
+        int done = 0;
+        for (int i = 0; i < times; i++) {
+            long start = System.nanoTime();
+            int position = i % entries.size();
+            TodoEntry entry = entries.get(position);
+            TodoRow row = windows.get(entries, position);
+            if (row != null && queue.getDone(entry.key, entry.done)) done++;
+            TodoMetrics.sBind.recordSince(start);
+        }
+        return done;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TodoWriteQueue newQueue() {
+        return new TodoWriteQueue(mock(Bucket.class), null);
+    }
+
+    @Test
+    public void getDoneWithNothingPendingDoesNotAllocate() {
+        long allocated = bytesPerBinds(newQueue());
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+
+    @Test
+    public void getDoneWithPendingTogglesDoesNotAllocate() {
+        TodoWriteQueue queue = newQueue();
+        for (int i = 0; i < ROWS; i += 3) {
+            queue.toggleDone(mKeys[i], false);
+        }
+        assertTrue(queue.getDone(mKeys[0], false));
+        assertFalse(queue.getDone(mKeys[1], false));
+
+        long allocated = bytesPerBinds(queue);
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void bindingLoadedRowsDoesNotAllocate() throws BucketObjectMissingException {
+        Map<String, Todo> todos = new HashMap<>();
+        List<TodoEntry> entries = TodoRowWindowsTest.entries(ROWS, todos);
+        ManualHandler handler = new ManualHandler();
+        TodoRowWindows windows = new TodoRowWindows(TodoRowWindowsTest.cacheOf(todos),
+                new TodoRowWindows.OnWindowLoadedListener() {
+                    @Override
+                    public void onWindowLoaded(List<TodoEntry> entries, int start, int count) {
+                    }
+                }, handler.getHandler(), new DirectExecutor());
+        windows.setBucket(mock(Bucket.class));
+        TodoWriteQueue queue = newQueue();
+        for (int i = 0; i < ROWS; i += 3) {
+            queue.toggleDone(mKeys[i], false);
+        }
+
+        // The first pass requests every window, the rows arrive before the second
+        assertEquals(0, bindRows(windows, entries, queue, ROWS));
+        handler.advanceBy(0);
+        bindRows(windows, entries, queue, BINDS);
+
+        long before = allocatedBytes();
+        int done = bindRows(windows, entries, queue, BINDS);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(done > 0);
+        assertEquals(0, handler.getPendingCount());
+        assertTrue(TodoMetrics.sBind.getCount() >= 2 * BINDS);
+        assertTrue("Allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+
+    @Test
+    public void decodeDoneDoesNotAllocate() {
+        Object[] values = {TodoFields.DONE, TodoFields.NOT_DONE, true, false, "1"};
+        int done = 0;
+        for (int i = 0; i < BINDS; i++) {
+            if (TodoFields.decodeDone(values[i % values.length])) done++;
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < BINDS; i++) {
+            if (TodoFields.decodeDone(values[i % values.length])) done++;
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(BINDS / values.length * 3 * 2, done);
+        assertTrue("Allocated " + allocated + " bytes", allocated < MAX_BYTES);
+    }
+}
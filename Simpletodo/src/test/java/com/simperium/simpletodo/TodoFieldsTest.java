@@ -0,0 +1,52 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TodoFieldsTest {
+
+    @Test
+    public void booleanDoneIsRewrittenAsInt() throws JSONException {
+        JSONObject done = new JSONObject().put(TodoFields.DONE_PROPERTY, true);
+        JSONObject notDone = new JSONObject().put(TodoFields.DONE_PROPERTY, false);
+
+        assertTrue(TodoFields.canonicalizeDone(done));
+        assertTrue(TodoFields.canonicalizeDone(notDone));
+        assertEquals(TodoFields.DONE, done.get(TodoFields.DONE_PROPERTY));
+        assertEquals(TodoFields.NOT_DONE, notDone.get(TodoFields.DONE_PROPERTY));
+    }
+
+    @Test
+    public void canonicalDoneIsLeftAlone() throws JSONException {
+        assertFalse(TodoFields.canonicalizeDone(new JSONObject().put(TodoFields.DONE_PROPERTY, TodoFields.DONE)));
+        assertFalse(TodoFields.canonicalizeDone(new JSONObject().put(TodoFields.DONE_PROPERTY, TodoFields.NOT_DONE)));
+    }
+
+    // Rewriting a missing done would re-save and re-sync the To-do on every first launch
+    @Test
+    public void missingDoneIsLeftAlone() throws JSONException {
+        JSONObject missing = new JSONObject().put(TodoFields.TITLE_PROPERTY, "Buy milk");
+        JSONObject nullDone = new JSONObject().put(TodoFields.DONE_PROPERTY, JSONObject.NULL);
+
+        assertFalse(TodoFields.canonicalizeDone(missing));
+        assertFalse(TodoFields.canonicalizeDone(nullDone));
+        assertFalse(missing.has(TodoFields.DONE_PROPERTY));
+        assertFalse(TodoFields.decodeDone(missing.opt(TodoFields.DONE_PROPERTY)));
+    }
+
+    @Test
+    public void otherEncodingsAreRewritten() throws JSONException {
+        JSONObject string = new JSONObject().put(TodoFields.DONE_PROPERTY, "true");
+        JSONObject decimal = new JSONObject().put(TodoFields.DONE_PROPERTY, 1.0);
+
+        assertTrue(TodoFields.canonicalizeDone(string));
+        assertTrue(TodoFields.canonicalizeDone(decimal));
+        assertEquals(TodoFields.DONE, string.get(TodoFields.DONE_PROPERTY));
+        assertEquals(TodoFields.DONE, decimal.get(TodoFields.DONE_PROPERTY));
+    }
+}
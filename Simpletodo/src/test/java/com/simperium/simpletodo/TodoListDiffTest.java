@@ -0,0 +1,116 @@
+package com.simperium.simpletodo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Applies each diff to the old list the way the adapter does and checks that it ends up as the new
+ * list, for edits, shuffles and lists where almost every row moves.
+ */
+public class TodoListDiffTest {
+
+    // The old list with the operations applied, rows come from the new list
+    private static final class AppliedList implements TodoListDiff.Callback {
+        final List<TodoEntry> rows;
+        final List<TodoEntry> target;
+        int moves;
+
+        AppliedList(List<TodoEntry> rows, List<TodoEntry> target) {
+            this.rows = new ArrayList<>(rows);
+            this.target = target;
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            rows.remove(position);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            rows.add(toPosition, rows.remove(fromPosition));
+            moves++;
+        }
+
+        @Override
+        public void onInserted(int position) {
+            rows.add(position, target.get(position));
+        }
+
+        @Override
+        public void onChanged(int position) {
+            rows.set(position, target.get(position));
+        }
+    }
+
+    private static List<TodoEntry> entries(int count) {
+        List<TodoEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new TodoEntry("todo" + i, TodoOrdering.atPosition(i), false, i));
+        }
+        return entries;
+    }
+
+    private static AppliedList apply(List<TodoEntry> oldRows, List<TodoEntry> newRows) {
+        AppliedList applied = new AppliedList(oldRows, newRows);
+        TodoListDiff.calculate(oldRows, newRows).dispatchTo(applied);
+        assertEquals(newRows, applied.rows);
+        return applied;
+    }
+
+    @Test
+    public void singleEditsAreSingleOperations() {
+        List<TodoEntry> rows = entries(100);
+
+        List<TodoEntry> moved = new ArrayList<>(rows);
+        moved.add(10, moved.remove(90));
+        assertEquals(1, apply(rows, moved).moves);
+
+        List<TodoEntry> edited = new ArrayList<>(rows);
+        TodoEntry entry = edited.get(50);
+        edited.set(50, new TodoEntry(entry.key, entry.order, true, entry.titleHash));
+        assertEquals(1, TodoListDiff.calculate(rows, edited).getOperationCount());
+    }
+
+    @Test
+    public void randomChangesEndInTheNewList() {
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            List<TodoEntry> rows = entries(random.nextInt(40));
+            List<TodoEntry> next = new ArrayList<>();
+            for (TodoEntry entry : rows) {
+                if (random.nextInt(5) == 0) continue;
+                next.add(random.nextInt(6) == 0
+                        ? new TodoEntry(entry.key, entry.order, !entry.done, entry.titleHash) : entry);
+            }
+            Collections.shuffle(next, random);
+            for (int i = random.nextInt(4); i > 0; i--) {
+                next.add(random.nextInt(next.size() + 1), new TodoEntry("new" + i, 0, false, 0));
+            }
+
+            apply(rows, next);
+        }
+    }
+
+    // Every row but one moves. Placing moves by searching the list made this quadratic, seconds at
+    // 10k rows and minutes at 100k.
+    @Test(timeout = 5000)
+    public void reversedListsDiffInLinearithmicTime() {
+        List<TodoEntry> rows = entries(100000);
+        List<TodoEntry> reversed = new ArrayList<>(rows);
+        Collections.reverse(reversed);
+
+        assertEquals(rows.size() - 1, TodoListDiff.calculate(rows, reversed).getOperationCount());
+
+        // Applying to an ArrayList is quadratic itself, a smaller reversal is checked move by move
+        List<TodoEntry> small = entries(2000);
+        List<TodoEntry> smallReversed = new ArrayList<>(small);
+        Collections.reverse(smallReversed);
+        assertEquals(small.size() - 1, apply(small, smallReversed).moves);
+    }
+}
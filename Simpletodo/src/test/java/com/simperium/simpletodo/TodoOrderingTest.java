@@ -0,0 +1,160 @@
+package com.simperium.simpletodo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reorders To-dos the way a drag and drop does, TodoOrdering.forDrop() for the moved To-do and
+ * TodoOrdering.spread() when the gap it was dropped into is exhausted, and counts the ranks written.
+ */
+public class TodoOrderingTest {
+
+    private static final int SIZE = 10000;
+    private static final int MOVES = 10000;
+
+    // The ranks of a list in display order, moved like the adapter moves rows
+    private static final class RankedList {
+        final List<Double> ranks = new ArrayList<>();
+        int writes;
+        int rebalances;
+
+        RankedList(int size) {
+            for (int i = 0; i < size; i++) {
+                ranks.add(TodoOrdering.atPosition(i));
+            }
+        }
+
+        void move(int from, int to) {
+            double current = ranks.remove(from);
+            ranks.add(to, current);
+
+            double previous = to > 0 ? ranks.get(to - 1) : Double.NaN;
+            double next = to < ranks.size() - 1 ? ranks.get(to + 1) : Double.NaN;
+            ranks.set(to, TodoOrdering.forDrop(previous, next, current));
+            writes++;
+
+            if (TodoOrdering.needsRebalance(previous, next)) {
+                double[] spread = new double[ranks.size()];
+                for (int i = 0; i < spread.length; i++) {
+                    spread[i] = ranks.get(i);
+                }
+                writes += TodoOrdering.spread(spread);
+                rebalances++;
+                for (int i = 0; i < spread.length; i++) {
+                    ranks.set(i, spread[i]);
+                }
+            }
+        }
+
+        void assertOrdered() {
+            for (int i = 1; i < ranks.size(); i++) {
+                assertTrue("Ranks out of order at " + i, ranks.get(i) - ranks.get(i - 1) >= TodoOrdering.MIN_GAP);
+            }
+        }
+    }
+
+    @Test
+    public void randomReordersWriteOneTodoEach() {
+        RankedList list = new RankedList(SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < MOVES; i++) {
+            list.move(random.nextInt(SIZE), random.nextInt(SIZE));
+        }
+
+        assertEquals(MOVES, list.writes);
+        assertEquals(0, list.rebalances);
+        list.assertOrdered();
+    }
+
+    // The worst case, every drop halves the same gap. Rebalances then stay local, so the writes per
+    // move don't depend on how long the list is.
+    @Test
+    public void dropsIntoOneGapWriteAConstantNumberOfTodosEach() {
+        RankedList small = new RankedList(SIZE / 10);
+        RankedList large = new RankedList(SIZE);
+        for (int i = 0; i < MOVES; i++) {
+            small.move(small.ranks.size() - 1, 1);
+            large.move(large.ranks.size() - 1, 1);
+        }
+
+        small.assertOrdered();
+        large.assertOrdered();
+        assertTrue(large.rebalances > 0);
+
+        double perMove = (double) large.writes / MOVES;
+        assertTrue("Wrote " + perMove + " ranks per move", perMove < 4);
+        assertTrue("Writes grew with the list", large.writes <= small.writes * 1.1);
+    }
+
+    // Each drop lands right after the last one, so the crowd in the middle keeps growing
+    @Test
+    public void dropsInTheMiddleStayLocal() {
+        RankedList small = new RankedList(SIZE / 10);
+        RankedList large = new RankedList(SIZE);
+        for (int i = 0; i < MOVES; i++) {
+            small.move(0, small.ranks.size() / 2);
+            large.move(0, large.ranks.size() / 2);
+        }
+
+        small.assertOrdered();
+        large.assertOrdered();
+        assertTrue(large.rebalances > 0);
+
+        double perMove = (double) large.writes / MOVES;
+        assertTrue("Wrote " + perMove + " ranks per move", perMove < 4);
+        assertTrue("Writes grew with the list", large.writes <= small.writes * 1.1);
+    }
+
+    @Test
+    public void spreadOnlyRewritesTheCrowdedWindow() {
+        double[] ranks = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            ranks[i] = TodoOrdering.atPosition(i);
+        }
+        // Two ties in the middle of the list
+        ranks[5001] = ranks[5000];
+        ranks[5002] = ranks[5000];
+
+        int changed = TodoOrdering.spread(ranks);
+
+        assertTrue("Changed " + changed + " ranks", changed > 0 && changed <= 4);
+        assertEquals(TodoOrdering.atPosition(4998), ranks[4998], 0);
+        assertEquals(TodoOrdering.atPosition(5004), ranks[5004], 0);
+        for (int i = 1; i < SIZE; i++) {
+            assertTrue(ranks[i] - ranks[i - 1] >= TodoOrdering.MIN_GAP);
+        }
+    }
+
+    @Test
+    public void spreadIsOpenEndedAtTheEndsOfTheList() {
+        double[] ranks = {1, 1, 1, 2048, 4096, 4096};
+
+        TodoOrdering.spread(ranks);
+
+        // Only the tie is moved, down from the first rank left in place
+        assertEquals(1 - 2 * TodoOrdering.STEP, ranks[0], 0);
+        assertEquals(1 - TodoOrdering.STEP, ranks[1], 0);
+        assertEquals(1, ranks[2], 0);
+        // And up from the last rank left in place
+        assertEquals(2048, ranks[3], 0);
+        assertEquals(2048 + TodoOrdering.STEP, ranks[4], 0);
+        assertEquals(2048 + 2 * TodoOrdering.STEP, ranks[5], 0);
+    }
+
+    @Test
+    public void forDropTakesTheMidpointOrAnEnd() {
+        assertEquals(1536, TodoOrdering.forDrop(1024, 2048, 0), 0);
+        assertEquals(1024 - TodoOrdering.STEP, TodoOrdering.forDrop(Double.NaN, 1024, 0), 0);
+        assertEquals(2048 + TodoOrdering.STEP, TodoOrdering.forDrop(2048, Double.NaN, 0), 0);
+        assertEquals(7, TodoOrdering.forDrop(Double.NaN, Double.NaN, 7), 0);
+        // Exhausted, ties with the previous To-do until spread out
+        assertEquals(1, TodoOrdering.forDrop(1, Math.nextUp(1.0), 0), 0);
+        assertTrue(TodoOrdering.needsRebalance(1, Math.nextUp(1.0)));
+    }
+}
@@ -0,0 +1,135 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+import com.simperium.client.BucketObjectMissingException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Rows are read a window at a time in the background and handed over on the UI thread, here a
+ * DirectExecutor and a ManualHandler.
+ */
+public class TodoRowWindowsTest {
+
+    private static final int ROWS = 1000;
+
+    private final List<String> mLoaded = new ArrayList<>();
+    private final Map<String, Todo> mTodos = new HashMap<>();
+    private ManualHandler mHandler;
+    private TodoCache mCache;
+    private Bucket<Todo> mBucket;
+    private TodoRowWindows mWindows;
+    private List<TodoEntry> mEntries;
+
+    static Todo todo(TodoRow row) {
+        Todo todo = mock(Todo.class);
+        when(todo.toRow()).thenReturn(row);
+        return todo;
+    }
+
+    // A cache that reads the To-dos in the map at the time of the call
+    static TodoCache cacheOf(final Map<String, Todo> todos) throws BucketObjectMissingException {
+        TodoCache cache = mock(TodoCache.class);
+        when(cache.get(any(Bucket.class), anyString())).thenAnswer(new Answer<Todo>() {
+            @Override
+            public Todo answer(InvocationOnMock invocation) throws BucketObjectMissingException {
+                Todo todo = todos.get(invocation.getArguments()[1]);
+                if (todo == null) throw new BucketObjectMissingException();
+                return todo;
+            }
+        });
+        return cache;
+    }
+
+    // The rows and their To-dos, in list order
+    static List<TodoEntry> entries(int count, Map<String, Todo> todos) {
+        List<TodoEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TodoRow row = new TodoRow("todo-" + i, "To-do " + i, i % 2 == 0, TodoOrdering.atPosition(i));
+            todos.put(row.key, todo(row));
+            entries.add(TodoEntry.of(row));
+        }
+        return entries;
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws BucketObjectMissingException {
+        mHandler = new ManualHandler();
+        mCache = cacheOf(mTodos);
+        mBucket = mock(Bucket.class);
+        mEntries = entries(ROWS, mTodos);
+        mWindows = new TodoRowWindows(mCache, new TodoRowWindows.OnWindowLoadedListener() {
+            @Override
+            public void onWindowLoaded(List<TodoEntry> entries, int start, int count) {
+                mLoaded.add(start + "+" + count);
+            }
+        }, mHandler.getHandler(), new DirectExecutor());
+        mWindows.setBucket(mBucket);
+    }
+
+    @Test
+    public void readsTheWindowAndPrefetchesTheNextOne() throws BucketObjectMissingException {
+        assertNull(mWindows.get(mEntries, 0));
+        mHandler.advanceBy(0);
+        assertEquals("[0+200, 200+200]", mLoaded.toString());
+
+        for (int i = 0; i < 2 * TodoRowWindows.WINDOW_SIZE; i++) {
+            assertEquals(mEntries.get(i).key, mWindows.get(mEntries, i).key);
+        }
+        mHandler.advanceBy(0);
+        // Binding the second window prefetched the third
+        assertEquals("[0+200, 200+200, 400+200]", mLoaded.toString());
+        verify(mCache, times(3 * TodoRowWindows.WINDOW_SIZE)).get(any(Bucket.class), anyString());
+    }
+
+    @Test
+    public void nothingIsReadBeforeTheBucketIsReady() throws BucketObjectMissingException {
+        mWindows.setBucket(null);
+
+        assertNull(mWindows.get(mEntries, 0));
+        mHandler.advanceBy(0);
+
+        assertEquals(0, mLoaded.size());
+        verify(mCache, times(0)).get(any(Bucket.class), anyString());
+    }
+
+    @Test
+    public void changedTitlesAreShownUntilTheyAreReadAgain() throws BucketObjectMissingException {
+        mWindows.get(mEntries, 0);
+        mHandler.advanceBy(0);
+        TodoRow old = mWindows.get(mEntries, 5);
+
+        TodoRow edited = new TodoRow(old.key, "Edited", old.done, old.order);
+        mTodos.put(old.key, todo(edited));
+        List<TodoEntry> next = new ArrayList<>(mEntries);
+        next.set(5, TodoEntry.of(edited));
+
+        assertSame(old, mWindows.get(next, 5));
+        mHandler.advanceBy(0);
+        assertSame(edited, mWindows.get(next, 5));
+        // Only the edited row was read again, the prefetched window still matched
+        verify(mCache, times(2)).get(mBucket, old.key);
+        verify(mCache, times(2 * TodoRowWindows.WINDOW_SIZE + 1)).get(any(Bucket.class), anyString());
+        assertNotNull(mWindows.get(next, 6));
+    }
+}
@@ -0,0 +1,97 @@
+package com.simperium.simpletodo;
+
+import com.simperium.client.Bucket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TodoSyncOwnerTest {
+
+    private static final long GRACE_MS = TodoSyncOwner.GRACE_PERIOD_MS;
+    // From an activity's onStop() to the next one's onStart() during a rotation
+    private static final long ROTATION_MS = 300;
+
+    private ManualHandler mHandler;
+    private Bucket<Todo> mBucket;
+    private TodoSyncOwner mOwner;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        mHandler = new ManualHandler();
+        mBucket = mock(Bucket.class);
+        mOwner = new TodoSyncOwner(mBucket, mock(TodoCache.class), mHandler.getHandler(), false);
+    }
+
+    @Test
+    public void rotationsDontRestartTheBucket() {
+        Object activity = new Object();
+        mOwner.acquire(activity);
+        for (int i = 0; i < 100; i++) {
+            mOwner.release(activity);
+            mHandler.advanceBy(ROTATION_MS);
+            activity = new Object();
+            mOwner.acquire(activity);
+        }
+        mHandler.advanceBy(GRACE_MS * 2);
+
+        assertEquals(1, mOwner.getStartCount());
+        verify(mBucket, times(1)).start();
+        verify(mBucket, never()).stop();
+    }
+
+    @Test
+    public void stopsOnceTheGracePeriodIsOver() {
+        Object activity = new Object();
+        mOwner.acquire(activity);
+        mOwner.release(activity);
+
+        mHandler.advanceBy(GRACE_MS - 1);
+        verify(mBucket, never()).stop();
+
+        mHandler.advanceBy(1);
+        verify(mBucket, times(1)).stop();
+
+        // Coming back after that starts it again
+        mOwner.acquire(activity);
+        assertEquals(2, mOwner.getStartCount());
+        verify(mBucket, times(2)).start();
+    }
+
+    @Test
+    public void otherHoldersKeepTheBucketRunning() {
+        Object activity = new Object();
+        Object widget = new Object();
+        mOwner.acquire(activity);
+        mOwner.acquire(widget);
+        mOwner.release(activity);
+        mHandler.advanceBy(GRACE_MS * 2);
+
+        verify(mBucket, never()).stop();
+        assertEquals(0, mHandler.getPendingCount());
+
+        mOwner.release(widget);
+        mHandler.advanceBy(GRACE_MS);
+        verify(mBucket, times(1)).stop();
+        assertEquals(1, mOwner.getStartCount());
+    }
+
+    @Test
+    public void offlineBucketIsNeverStarted() {
+        TodoSyncOwner owner = new TodoSyncOwner(mBucket, mock(TodoCache.class), mHandler.getHandler(), true);
+        Object activity = new Object();
+        owner.acquire(activity);
+        owner.release(activity);
+        mHandler.advanceBy(GRACE_MS);
+
+        assertEquals(0, owner.getStartCount());
+        verify(mBucket, never()).start();
+        verify(mBucket, never()).stop();
+    }
+}
@@ -0,0 +1,180 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A JVM stand-in for Bucket<Todo> and its Query. Like Simperium's SQLite storage, each object is
+ * kept as serialized JSON next to the indexed top level values that queries compare against, so
+ * reading an object pays for parsing and a where/order query pays for an index scan and sort.
+ */
+public class InMemoryTodoBucket {
+
+    public interface Listener {
+        void onDeleteObject(InMemoryTodoBucket bucket, String key);
+    }
+
+    static final class Entry {
+        final String key;
+        String json;
+        Object indexedDone;
+        double indexedOrder;
+        Object indexedTitle;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Comparator<Entry> BY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry left, Entry right) {
+            return Double.compare(left.indexedOrder, right.indexedOrder);
+        }
+    };
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private Listener mListener;
+
+    // Every third To-do is done, half of those written by the iOS app with a boolean. Ranks are
+    // sparse and shuffled so ordered queries have to sort.
+    public static InMemoryTodoBucket populate(int size, boolean canonicalize) {
+        InMemoryTodoBucket bucket = new InMemoryTodoBucket();
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            JSONObject properties = new JSONObject();
+            try {
+                properties.put(TodoFields.TITLE_PROPERTY, "Todo number " + i);
+                if (i % 6 == 0) {
+                    properties.put(TodoFields.DONE_PROPERTY, true);
+                } else {
+                    properties.put(TodoFields.DONE_PROPERTY, i % 3 == 0 ? TodoFields.DONE : TodoFields.NOT_DONE);
+                }
+                properties.put(TodoFields.ORDER_PROPERTY, random.nextInt(size) * TodoOrdering.STEP);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            bucket.save("todo-" + i, properties, canonicalize);
+        }
+        return bucket;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    // Mirrors Todo.Schema.build()/update() followed by a storage write
+    public void save(String key, JSONObject properties, boolean canonicalize) {
+        if (canonicalize) {
+            TodoFields.canonicalizeDone(properties);
+        }
+
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+        entry.json = properties.toString();
+        entry.indexedDone = properties.opt(TodoFields.DONE_PROPERTY);
+        entry.indexedOrder = TodoFields.decodeOrder(properties.opt(TodoFields.ORDER_PROPERTY));
+        entry.indexedTitle = properties.opt(TodoFields.TITLE_PROPERTY);
+    }
+
+    public void delete(String key) {
+        if (mEntries.remove(key) != null && mListener != null) {
+            mListener.onDeleteObject(this, key);
+        }
+    }
+
+    // Mirrors ObjectCursor.getObject(), which builds the object from its stored JSON
+    public JSONObject getProperties(String key) {
+        return parse(mEntries.get(key));
+    }
+
+    public Query query() {
+        return new Query();
+    }
+
+    static JSONObject parse(Entry entry) {
+        try {
+            return new JSONObject(entry.json);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static TodoRow toRow(Entry entry) {
+        JSONObject properties = parse(entry);
+        return new TodoRow(entry.key,
+                TodoFields.decodeTitle(properties.opt(TodoFields.TITLE_PROPERTY)),
+                TodoFields.decodeDone(properties.opt(TodoFields.DONE_PROPERTY)),
+                TodoFields.decodeOrder(properties.opt(TodoFields.ORDER_PROPERTY)));
+    }
+
+    // What the list index keeps, see TodoEntry
+    static TodoEntry toEntry(Entry entry) {
+        JSONObject properties = parse(entry);
+        return new TodoEntry(entry.key,
+                TodoFields.decodeOrder(properties.opt(TodoFields.ORDER_PROPERTY)),
+                TodoFields.decodeDone(properties.opt(TodoFields.DONE_PROPERTY)),
+                TodoEntry.hashTitle(TodoFields.decodeTitle(properties.opt(TodoFields.TITLE_PROPERTY))));
+    }
+
+    // Mirrors Todo.entryAt(), the same entry from the indexed values without parsing the JSON
+    static TodoEntry toIndexedEntry(Entry entry) {
+        return new TodoEntry(entry.key, entry.indexedOrder, TodoFields.decodeDone(entry.indexedDone),
+                TodoEntry.hashTitle(TodoFields.decodeTitle(entry.indexedTitle)));
+    }
+
+    public class Query {
+
+        private Object mDoneEquals;
+        private boolean mOrdered;
+
+        // Compares the indexed value like SQLite would, a boolean true never equals 1
+        public Query whereDoneEqualTo(Object value) {
+            mDoneEquals = value;
+            return this;
+        }
+
+        public Query orderByOrder() {
+            mOrdered = true;
+            return this;
+        }
+
+        public int count() {
+            if (mDoneEquals == null) return mEntries.size();
+
+            int count = 0;
+            for (Entry entry : mEntries.values()) {
+                if (mDoneEquals.equals(entry.indexedDone)) count++;
+            }
+            return count;
+        }
+
+        public List<Entry> execute() {
+            List<Entry> results = new ArrayList<>(mDoneEquals == null ? mEntries.size() : 16);
+            for (Entry entry : mEntries.values()) {
+                if (mDoneEquals == null || mDoneEquals.equals(entry.indexedDone)) {
+                    results.add(entry);
+                }
+            }
+            if (mOrdered) {
+                Collections.sort(results, BY_ORDER);
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The Todo getters as they were before the decoded field cache, kept as the baseline for
+ * TodoFieldsBenchmark.
+ */
+final class LegacyTodoFields {
+
+    private LegacyTodoFields() {
+    }
+
+    static boolean isDone(JSONObject properties) {
+        try {
+            return properties.getInt(TodoFields.DONE_PROPERTY) == TodoFields.DONE;
+        } catch (JSONException e) {
+            try {
+                return properties.getBoolean(TodoFields.DONE_PROPERTY);
+            } catch (JSONException e1) {
+                return false;
+            }
+        }
+    }
+
+    static String getTitle(JSONObject properties) {
+        return properties.optString(TodoFields.TITLE_PROPERTY, "");
+    }
+
+    static String toString(String key, JSONObject properties) {
+        return "Todo " + key + ": " + getTitle(properties) + " [" + (isDone(properties) ? "✓" : " ") + "]";
+    }
+}
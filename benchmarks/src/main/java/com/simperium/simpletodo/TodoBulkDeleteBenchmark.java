@@ -0,0 +1,151 @@
+package com.simperium.simpletodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clearing completed To-dos. Both paths decode every completed To-do once, the way
+ * ObjectCursor.getObject() does, and delete it, and both make the same delete callback to the same
+ * listener, which models the TodoRepository: each callback refreshes the list (the completed count
+ * query) unless the repository is suspended, and a suspended repository refreshes once on resume.
+ *
+ * The per object path is the old Todo.deleteCompleted() behaviour, nothing suspended the refreshes.
+ * The bulk path mirrors TodoBulkDelete.deleteCompleted(), which can't be compiled without Simperium:
+ * passes over the completed query until one deletes nothing, progress every CHUNK_SIZE deletes and
+ * the repository suspended around it.
+ *
+ * The per object path is quadratic, so it stops at 10k objects.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class TodoBulkDeleteBenchmark {
+
+    // Mirrors TodoBulkDelete.CHUNK_SIZE
+    private static final int CHUNK_SIZE = 250;
+
+    // What the TodoRepository does with a delete callback
+    static final class RepositoryListener implements InMemoryTodoBucket.Listener {
+        boolean suspended;
+        int pendingRequests;
+        int refreshes;
+        int completedCount;
+
+        @Override
+        public void onDeleteObject(InMemoryTodoBucket bucket, String key) {
+            if (suspended) {
+                pendingRequests++;
+            } else {
+                refresh(bucket);
+            }
+        }
+
+        void resume(InMemoryTodoBucket bucket) {
+            suspended = false;
+            if (pendingRequests > 0) {
+                pendingRequests = 0;
+                refresh(bucket);
+            }
+        }
+
+        private void refresh(InMemoryTodoBucket bucket) {
+            completedCount = bucket.query().whereDoneEqualTo(TodoFields.DONE).count();
+            refreshes++;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class BulkState {
+
+        @Param({"100", "10000", "1000000"})
+        public int size;
+
+        InMemoryTodoBucket bucket;
+        RepositoryListener listener;
+        int progressTicks;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            bucket = InMemoryTodoBucket.populate(size, true);
+            listener = new RepositoryListener();
+            bucket.setListener(listener);
+            progressTicks = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerObjectState {
+
+        @Param({"100", "10000"})
+        public int size;
+
+        InMemoryTodoBucket bucket;
+        RepositoryListener listener;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            bucket = InMemoryTodoBucket.populate(size, true);
+            listener = new RepositoryListener();
+            bucket.setListener(listener);
+        }
+    }
+
+    @Benchmark
+    public int perObject(PerObjectState state) {
+        for (InMemoryTodoBucket.Entry entry : state.bucket.query().whereDoneEqualTo(TodoFields.DONE).execute()) {
+            // Todo.deleteCompleted() built each object before deleting it
+            state.bucket.getProperties(entry.key);
+            state.bucket.delete(entry.key);
+        }
+        return state.listener.refreshes + state.listener.completedCount;
+    }
+
+    @Benchmark
+    public int bulk(BulkState state) {
+        InMemoryTodoBucket bucket = state.bucket;
+        // TodoListActivity suspends the repository before starting the delete
+        state.listener.suspended = true;
+        try {
+            int deleted = 0;
+            int total = -1;
+            int passDeleted;
+            do {
+                passDeleted = 0;
+                List<InMemoryTodoBucket.Entry> cursor = bucket.query().whereDoneEqualTo(TodoFields.DONE).execute();
+                if (total < 0) {
+                    total = cursor.size();
+                    state.progressTicks++;
+                }
+                for (InMemoryTodoBucket.Entry entry : cursor) {
+                    // cursor.getObject().delete()
+                    bucket.getProperties(entry.key);
+                    bucket.delete(entry.key);
+                    passDeleted++;
+                    if ((deleted + passDeleted) % CHUNK_SIZE == 0) {
+                        state.progressTicks++;
+                    }
+                }
+                deleted += passDeleted;
+            } while (passDeleted > 0);
+        } finally {
+            // onBulkDeleteComplete()
+            state.listener.resume(bucket);
+        }
+        return state.listener.refreshes + state.listener.completedCount + state.progressTicks;
+    }
+}
@@ -0,0 +1,72 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per call cost of reading a To-do's fields: the old getters that went through the JSONObject (and
+ * an exception for boolean encoded done values) against the cached fields Todo decodes once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TodoFieldsBenchmark {
+
+    @Param({"int", "boolean"})
+    public String doneEncoding;
+
+    private JSONObject mProperties;
+    private boolean mDone;
+    private String mTitle;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mProperties = new JSONObject();
+        mProperties.put(TodoFields.TITLE_PROPERTY, "Buy milk");
+        mProperties.put(TodoFields.ORDER_PROPERTY, 1024);
+        if (doneEncoding.equals("boolean")) {
+            mProperties.put(TodoFields.DONE_PROPERTY, true);
+        } else {
+            mProperties.put(TodoFields.DONE_PROPERTY, TodoFields.DONE);
+        }
+        mDone = TodoFields.decodeDone(mProperties.opt(TodoFields.DONE_PROPERTY));
+        mTitle = TodoFields.decodeTitle(mProperties.opt(TodoFields.TITLE_PROPERTY));
+    }
+
+    @Benchmark
+    public boolean legacyIsDone() {
+        return LegacyTodoFields.isDone(mProperties);
+    }
+
+    // What Todo pays once per build or update
+    @Benchmark
+    public boolean decodeDone() {
+        return TodoFields.decodeDone(mProperties.opt(TodoFields.DONE_PROPERTY));
+    }
+
+    @Benchmark
+    public String legacyToString() {
+        return LegacyTodoFields.toString("todo-key", mProperties);
+    }
+
+    @Benchmark
+    public String cachedToString() {
+        return "Todo " + "todo-key" + ": " + mTitle + " [" + (mDone ? "✓" : " ") + "]";
+    }
+}
@@ -0,0 +1,145 @@
+package com.simperium.simpletodo;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming import and export at 100k To-dos. Gson's JsonReader and JsonWriter stand in for
+ * android.util's, which are a fork of them with the same API, and the loops mirror TodoImporter and
+ * TodoExporter. Batching and ranks go through the app's own TodoImportBatch.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class TodoImportBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    private byte[] mJsonArray;
+    private byte[] mNdjson;
+    private InMemoryTodoBucket mBucket;
+    private InMemoryTodoBucket mExportBucket;
+
+    @Setup(Level.Trial)
+    public void writeFiles() throws IOException {
+        mExportBucket = InMemoryTodoBucket.populate(size, true);
+        mJsonArray = export(mExportBucket);
+
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            ndjson.append("{\"title\":\"Imported todo ").append(i).append("\",\"done\":")
+                    .append(i % 3 == 0 ? "true" : "0").append("}\n");
+        }
+        mNdjson = ndjson.toString().getBytes("UTF-8");
+    }
+
+    @Setup(Level.Iteration)
+    public void resetBucket() {
+        mBucket = new InMemoryTodoBucket();
+    }
+
+    @Benchmark
+    public int importJsonArray() throws IOException {
+        return importTodos(mJsonArray);
+    }
+
+    @Benchmark
+    public int importNdjson() throws IOException {
+        return importTodos(mNdjson);
+    }
+
+    @Benchmark
+    public byte[] exportJsonArray() throws IOException {
+        return export(mExportBucket);
+    }
+
+    private int importTodos(byte[] file) throws IOException {
+        TodoImportBatch batch = new TodoImportBatch(Double.NaN);
+        int imported = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(file), "UTF-8"));
+        reader.setLenient(true);
+        boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+        if (array) reader.beginArray();
+        while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+            String title = "";
+            boolean done = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(TodoFields.TITLE_PROPERTY)) {
+                    title = reader.nextString();
+                } else if (name.equals(TodoFields.DONE_PROPERTY)) {
+                    done = reader.peek() == JsonToken.BOOLEAN ? reader.nextBoolean()
+                            : TodoFields.decodeDone(Double.parseDouble(reader.nextString()));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (batch.add(title, done)) {
+                imported += saveBatch(batch);
+            }
+        }
+        if (array) reader.endArray();
+        reader.close();
+
+        return imported + saveBatch(batch);
+    }
+
+    private int saveBatch(TodoImportBatch batch) {
+        int saved = batch.size();
+        for (int i = 0; i < saved; i++) {
+            mBucket.save("imported-" + mBucket.size(), batch.get(i), true);
+        }
+        batch.clear();
+        return saved;
+    }
+
+    private static byte[] export(InMemoryTodoBucket bucket) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.beginArray();
+        for (InMemoryTodoBucket.Entry entry : bucket.query().orderByOrder().execute()) {
+            // Like ObjectCursor.getObject(), each To-do is parsed from storage as it is written
+            JSONObject properties = InMemoryTodoBucket.parse(entry);
+            writer.beginObject();
+            writer.name("key").value(entry.key);
+            writer.name(TodoFields.TITLE_PROPERTY).value(TodoFields.decodeTitle(properties.opt(TodoFields.TITLE_PROPERTY)));
+            writer.name(TodoFields.DONE_PROPERTY).value(TodoFields.decodeDone(properties.opt(TodoFields.DONE_PROPERTY))
+                    ? TodoFields.DONE : TodoFields.NOT_DONE);
+            writer.name(TodoFields.ORDER_PROPERTY).value(TodoFields.decodeOrder(properties.opt(TodoFields.ORDER_PROPERTY)));
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.close();
+        return out.toByteArray();
+    }
+}
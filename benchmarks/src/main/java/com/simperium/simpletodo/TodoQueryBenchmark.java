@@ -0,0 +1,93 @@
+package com.simperium.simpletodo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The list refresh path: the ordered queryAll read into TodoEntries, the completed count, and the
+ * keyed diff the adapter applies after a single edit and after a reorder that moves every row.
+ *
+ * queryAll() parses every To-do's JSON, as the filter index seed did before it read the indexed
+ * values, queryAllIndexed() is the seed as it is now.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class TodoQueryBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private InMemoryTodoBucket mBucket;
+    private List<TodoEntry> mEntries;
+    private List<TodoEntry> mEditedEntries;
+    private List<TodoEntry> mReversedEntries;
+
+    @Setup
+    public void setUp() {
+        mBucket = InMemoryTodoBucket.populate(size, true);
+        mEntries = queryAll();
+
+        mEditedEntries = new ArrayList<>(mEntries);
+        int middle = size / 2;
+        TodoEntry entry = mEntries.get(middle);
+        mEditedEntries.set(middle, new TodoEntry(entry.key, entry.order, !entry.done, entry.titleHash + 1));
+
+        mReversedEntries = new ArrayList<>(mEntries);
+        Collections.reverse(mReversedEntries);
+    }
+
+    @Benchmark
+    public List<TodoEntry> queryAll() {
+        List<InMemoryTodoBucket.Entry> stored = mBucket.query().orderByOrder().execute();
+        List<TodoEntry> entries = new ArrayList<>(stored.size());
+        for (InMemoryTodoBucket.Entry entry : stored) {
+            entries.add(InMemoryTodoBucket.toEntry(entry));
+        }
+        return entries;
+    }
+
+    // TodoFilterIndex.seed(), see Todo.queryAllEntries()
+    @Benchmark
+    public List<TodoEntry> queryAllIndexed() {
+        List<InMemoryTodoBucket.Entry> stored = mBucket.query().orderByOrder().execute();
+        List<TodoEntry> entries = new ArrayList<>(stored.size());
+        for (InMemoryTodoBucket.Entry entry : stored) {
+            entries.add(InMemoryTodoBucket.toIndexedEntry(entry));
+        }
+        return entries;
+    }
+
+    @Benchmark
+    public int countCompleted() {
+        return mBucket.query().whereDoneEqualTo(TodoFields.DONE).count();
+    }
+
+    @Benchmark
+    public TodoListDiff diffSingleEdit() {
+        return TodoListDiff.calculate(mEntries, mEditedEntries);
+    }
+
+    // The most moves a diff can have, size - 1
+    @Benchmark
+    public TodoListDiff diffReversed() {
+        return TodoListDiff.calculate(mEntries, mReversedEntries);
+    }
+}
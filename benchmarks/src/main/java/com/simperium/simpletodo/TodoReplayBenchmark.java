@@ -0,0 +1,97 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a generated TodoChangeTrace of remote changes, refreshing the list the way the activity
+ * does: every `changesPerRefresh` changes the ordered query is read into entries and diffed against
+ * the previous snapshot. 1 is a refresh per callback, larger values are what coalescing buys during
+ * a sync storm.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TodoReplayBenchmark {
+
+    @Param({"1000"})
+    public int initial;
+
+    @Param({"5000"})
+    public int changes;
+
+    @Param({"1", "16", "256"})
+    public int changesPerRefresh;
+
+    private TodoChangeTrace mTrace;
+    private InMemoryTodoBucket mBucket;
+
+    @Setup(Level.Trial)
+    public void generateTrace() {
+        mTrace = TodoChangeTrace.generate(42, initial, changes);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetBucket() {
+        mBucket = new InMemoryTodoBucket();
+    }
+
+    @Benchmark
+    public int replay() {
+        List<TodoEntry> entries = Collections.emptyList();
+        int operations = 0;
+        int pending = 0;
+        for (TodoChangeTrace.Change change : mTrace.getChanges()) {
+            apply(change);
+            if (++pending == changesPerRefresh) {
+                pending = 0;
+                List<TodoEntry> next = queryEntries();
+                operations += TodoListDiff.calculate(entries, next).getOperationCount();
+                entries = next;
+            }
+        }
+        return operations;
+    }
+
+    private void apply(TodoChangeTrace.Change change) {
+        if (change.op.equals(TodoChangeTrace.DELETE)) {
+            mBucket.delete(change.key);
+            return;
+        }
+
+        try {
+            mBucket.save(change.key, new JSONObject(change.value.toString()), true);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<TodoEntry> queryEntries() {
+        List<InMemoryTodoBucket.Entry> stored = mBucket.query().orderByOrder().execute();
+        List<TodoEntry> entries = new ArrayList<>(stored.size());
+        for (InMemoryTodoBucket.Entry entry : stored) {
+            entries.add(InMemoryTodoBucket.toEntry(entry));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,70 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Todo.Schema build and update paths over a whole bucket: parse the stored JSON, canonicalize
+ * done and decode the fields, as happens when a sync delivers every object.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class TodoSchemaBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private String[] mStored;
+
+    @Setup
+    public void setUp() {
+        InMemoryTodoBucket bucket = InMemoryTodoBucket.populate(size, false);
+        mStored = new String[size];
+        int i = 0;
+        for (InMemoryTodoBucket.Entry entry : bucket.query().execute()) {
+            mStored[i++] = entry.json;
+        }
+    }
+
+    @Benchmark
+    public void build(Blackhole blackhole) throws JSONException {
+        for (String json : mStored) {
+            JSONObject properties = new JSONObject(json);
+            TodoFields.canonicalizeDone(properties);
+            blackhole.consume(TodoFields.decodeDone(properties.opt(TodoFields.DONE_PROPERTY)));
+            blackhole.consume(TodoFields.decodeTitle(properties.opt(TodoFields.TITLE_PROPERTY)));
+            blackhole.consume(TodoFields.decodeOrder(properties.opt(TodoFields.ORDER_PROPERTY)));
+        }
+    }
+
+    // A remote title change applied to every object
+    @Benchmark
+    public void update(Blackhole blackhole) throws JSONException {
+        for (String json : mStored) {
+            JSONObject properties = new JSONObject(json);
+            properties.put(TodoFields.TITLE_PROPERTY, "Renamed");
+            TodoFields.canonicalizeDone(properties);
+            blackhole.consume(TodoFields.decodeDone(properties.opt(TodoFields.DONE_PROPERTY)));
+            blackhole.consume(TodoFields.decodeTitle(properties.opt(TodoFields.TITLE_PROPERTY)));
+            blackhole.consume(properties.toString());
+        }
+    }
+}
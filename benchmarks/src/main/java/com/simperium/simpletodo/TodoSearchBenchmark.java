@@ -0,0 +1,137 @@
+package com.simperium.simpletodo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Title search at 100k To-dos: TodoSearchIndex against an ordered bucket query that decodes and
+ * matches every title, which is what search would cost without the index. Titles are three to six
+ * words from a vocabulary of about 1900, the queries go from a short prefix that matches a lot to
+ * two words that match a few. Building the index and keeping it up to date after an edit are
+ * measured too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class TodoSearchBenchmark {
+
+    private static final String[] SYLLABLES = { "ba", "ko", "mi", "ru", "te", "sa", "lo", "ni", "du", "fe", "ga", "pi" };
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"k", "komi", "kom ba"})
+    public String query;
+
+    private InMemoryTodoBucket mBucket;
+    private List<TodoRow> mRows;
+    private TodoSearchIndex mIndex;
+    private int mEdits;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        mBucket = new InMemoryTodoBucket();
+        for (int i = 0; i < size; i++) {
+            JSONObject properties = new JSONObject();
+            try {
+                properties.put(TodoFields.TITLE_PROPERTY, title(random));
+                properties.put(TodoFields.DONE_PROPERTY, i % 3 == 0 ? TodoFields.DONE : TodoFields.NOT_DONE);
+                properties.put(TodoFields.ORDER_PROPERTY, random.nextInt(size) * TodoOrdering.STEP);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+            mBucket.save("todo-" + i, properties, true);
+        }
+
+        mRows = new ArrayList<>(size);
+        for (InMemoryTodoBucket.Entry entry : mBucket.query().orderByOrder().execute()) {
+            mRows.add(InMemoryTodoBucket.toRow(entry));
+        }
+        mIndex = buildIndex();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TodoSearchIndex buildIndex() {
+        TodoSearchIndex index = new TodoSearchIndex();
+        for (TodoRow row : mRows) {
+            index.put(row);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public List<TodoRow> searchIndex() {
+        return mIndex.search(query);
+    }
+
+    @Benchmark
+    public List<TodoRow> searchQueryScan() {
+        String[] prefixes = TodoSearchIndex.words(query);
+        List<TodoRow> rows = new ArrayList<>();
+        for (InMemoryTodoBucket.Entry entry : mBucket.query().orderByOrder().execute()) {
+            TodoRow row = InMemoryTodoBucket.toRow(entry);
+            if (matchesAll(TodoSearchIndex.words(row.title), prefixes)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    // One callback's worth of work: a title edit replaces the To-do's words
+    @Benchmark
+    public TodoSearchIndex updateIndex() {
+        TodoRow row = mRows.get(mEdits++ % size);
+        mIndex.put(new TodoRow(row.key, row.title + " edited" + (mEdits & 1), row.done, row.order));
+        return mIndex;
+    }
+
+    private static String title(Random random) {
+        StringBuilder title = new StringBuilder();
+        int words = 3 + random.nextInt(4);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) title.append(' ');
+            int syllables = 2 + random.nextInt(2);
+            for (int j = 0; j < syllables; j++) {
+                String syllable = SYLLABLES[random.nextInt(SYLLABLES.length)];
+                title.append(i == 0 && j == 0 ? Character.toUpperCase(syllable.charAt(0)) + syllable.substring(1) : syllable);
+            }
+        }
+        return title.toString();
+    }
+
+    private static boolean matchesAll(String[] words, String[] prefixes) {
+        for (String prefix : prefixes) {
+            boolean matched = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) return false;
+        }
+        return true;
+    }
+}